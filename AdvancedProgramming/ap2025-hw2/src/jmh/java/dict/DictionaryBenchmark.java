@@ -0,0 +1,80 @@
+package dict;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link PersistentDictionary} implementations.
+ * <p>
+ * Every combination of dictionary size, key distribution and implementation
+ * (see {@link Workload}) is run by default, which takes hours; restrict them
+ * with JMH's -p option. The largest sizes need a heap of several GB for the
+ * in-memory dictionaries (use -jvmArgs).
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DictionaryBenchmark {
+
+    /**
+     * Makes the dictionary dirty before each call of {@link #close(Workload, Dirty)},
+     * so there is something to write.
+     */
+    @State(Scope.Thread)
+    public static class Dirty {
+        @Setup(Level.Invocation)
+        public void setup(Workload w) throws IOException {
+            w.dict.open();
+            int i = w.keys[w.next()];
+            w.dict.put(Workload.key(i), Workload.value(i) + " (updated)");
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int open(Workload w) throws IOException {
+        w.dict.open();
+        return w.dict.size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void close(Workload w, Dirty dirty) throws IOException {
+        w.dict.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String get(Workload w) {
+        return w.dict.get(Workload.key(w.keys[w.next()]));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String put(Workload w) {
+        int i = w.keys[w.next()];
+        return w.dict.put(Workload.key(i), Workload.value(i));
+    }
+
+    /**
+     * Reads and writes, in the proportion of {@link Workload#READ_FRACTION}.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String mixed(Workload w) {
+        int op = w.next();
+        String key = Workload.key(w.keys[op]);
+        return w.writes[op] ? w.dict.put(key, Workload.value(w.keys[op])) : w.dict.get(key);
+    }
+}
@@ -0,0 +1,153 @@
+package dict;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A dictionary filled with generated entries, and a sequence of keys to look
+ * up or update in it.
+ * <p>
+ * The keys are drawn either uniformly or from a Zipfian distribution (where a
+ * few keys get most of the traffic, as with real word lookups). The hot keys
+ * are scattered across the key space rather than clustered at its start, so
+ * that they don't all share the same pages.
+ */
+@State(Scope.Benchmark)
+public class Workload {
+    static final int OPERATIONS = 1 << 20;
+    static final double ZIPF_THETA = 0.99;
+    static final double READ_FRACTION = 0.9;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"uniform", "zipfian"})
+    public String distribution;
+
+    @Param({"InMemoryDictionary", "OffHeapDictionary", "ConcurrentDictionary", "BTreeDictionary",
+            "CompressedDictionary", "LogStructuredDictionary"})
+    public String implementation;
+
+    File file;
+    PersistentDictionary dict;
+
+    int[] keys; // Indices of the keys to use, in order
+    boolean[] writes; // Which of the operations of a mixed workload are writes
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("DictBenchmark", ".tmp");
+        file.delete();
+        dict = newDictionary();
+        dict.open();
+        for (int i = 0; i < size; ++i) {
+            dict.put(key(i), value(i));
+        }
+        dict.close();
+
+        dict = newDictionary();
+        dict.open();
+
+        Random rnd = new Random(17); // Fixed seed, so every run sees the same workload
+        Zipfian zipfian = distribution.equals("zipfian") ? new Zipfian(size, ZIPF_THETA) : null;
+        keys = new int[OPERATIONS];
+        writes = new boolean[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; ++i) {
+            keys[i] = zipfian != null ? zipfian.next(rnd) : rnd.nextInt(size);
+            writes[i] = rnd.nextDouble() >= READ_FRACTION;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        BloomFilter.fileFor(file).delete();
+    }
+
+    PersistentDictionary newDictionary() {
+        switch (implementation) {
+            case "InMemoryDictionary":
+                return new InMemoryDictionary(file);
+            case "OffHeapDictionary":
+                return new OffHeapDictionary(file);
+            case "ConcurrentDictionary":
+                return new ConcurrentDictionary(file);
+            case "BTreeDictionary":
+                return new BTreeDictionary(file);
+            case "CompressedDictionary":
+                return new CompressedDictionary(file);
+            case "LogStructuredDictionary":
+                return new LogStructuredDictionary(file);
+            default:
+                throw new IllegalArgumentException("Unknown dictionary: " + implementation);
+        }
+    }
+
+    /**
+     * Return the index of the next operation.
+     */
+    int next() {
+        int i = next;
+        next = (next + 1) & (OPERATIONS - 1);
+        return i;
+    }
+
+    /**
+     * Return the i-th key. Keys are scattered in sort order, and have no common prefix beyond the first letter.
+     */
+    static String key(int i) {
+        return "w" + Long.toHexString(i * 0x9E3779B97F4A7C15L);
+    }
+
+    static String value(int i) {
+        return "the definition of word number " + i;
+    }
+
+    /**
+     * Draws ranks from a Zipfian distribution over [0, n), using the method of
+     * Gray et al., "Quickly Generating Billion-Record Synthetic Databases".
+     * Ranks are then mapped to key indices by a fixed permutation.
+     */
+    static class Zipfian {
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        Zipfian(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1 / (1 - theta);
+            this.zetan = zeta(n, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; ++i) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        int next(Random rnd) {
+            double u = rnd.nextDouble();
+            double uz = u * zetan;
+            long rank;
+            if (uz < 1) {
+                rank = 0;
+            } else if (uz < 1 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+            }
+            // Multiplying by a prime larger than n permutes [0, n)
+            return (int) Math.floorMod(rank * 2654435761L, (long) n);
+        }
+    }
+}
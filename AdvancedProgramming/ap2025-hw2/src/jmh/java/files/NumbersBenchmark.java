@@ -0,0 +1,103 @@
+package files;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of decoding and encoding 40-bit numbers: one at a time with
+ * {@link Streams#readNumber}, and in bulk from a stream and from a buffer.
+ * Each call handles all the numbers; divide their count by the time for the rate.
+ */
+@Fork(1)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NumbersBenchmark {
+
+    @Param({"1000000"})
+    public int count;
+
+    long[] numbers;
+    byte[] encoded;
+    ByteBuffer heap;
+    ByteBuffer direct;
+    ByteArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random rnd = new Random(17);
+        numbers = new long[count];
+        for (int i = 0; i < count; ++i) {
+            numbers[i] = rnd.nextLong() >>> 24;
+        }
+        out = new ByteArrayOutputStream(5 * count);
+        Streams.writeNumbers(out, numbers, 0, count);
+        encoded = out.toByteArray();
+        heap = ByteBuffer.wrap(encoded);
+        direct = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip();
+    }
+
+    @Benchmark
+    public long readPerByte() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+        long sum = 0;
+        for (int i = 0; i < count; ++i) {
+            sum += Streams.readNumber(in);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long[] readBulkStream() throws IOException {
+        Streams.readNumbers(new ByteArrayInputStream(encoded), numbers, 0, count);
+        return numbers;
+    }
+
+    @Benchmark
+    public long[] readBulkHeapBuffer() {
+        Streams.readNumbers(heap.clear(), numbers, 0, count);
+        return numbers;
+    }
+
+    @Benchmark
+    public long[] readBulkDirectBuffer() {
+        Streams.readNumbers(direct.clear(), numbers, 0, count);
+        return numbers;
+    }
+
+    /**
+     * Encoding one number at a time, as the bulk encoder replaces.
+     */
+    @Benchmark
+    public int writePerByte() {
+        out.reset();
+        for (int i = 0; i < count; ++i) {
+            long number = numbers[i];
+            for (int j = 4; j >= 0; --j) {
+                out.write((int) (number >>> (8 * j)));
+            }
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeBulkStream() throws IOException {
+        out.reset();
+        Streams.writeNumbers(out, numbers, 0, count);
+        return out.size();
+    }
+
+    @Benchmark
+    public ByteBuffer writeBulkHeapBuffer() {
+        Streams.writeNumbers(heap.clear(), numbers, 0, count);
+        return heap;
+    }
+}
@@ -0,0 +1,78 @@
+package files;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link RandomAccess} file sorts, sequential and parallel.
+ * <p>
+ * Each invocation sorts a fresh copy of a file of random bytes. The time per
+ * sort is reported; divide the size by it for the throughput. The bubble sorts
+ * this replaced aren't included, as they take hours at these sizes.
+ */
+@Fork(1)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SortBenchmark {
+
+    @Param({"16", "64", "256"})
+    public int megabytes;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    File original;
+    File file;
+    RandomAccessFile raf;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        original = File.createTempFile("SortBenchmark", ".orig");
+        file = File.createTempFile("SortBenchmark", ".tmp");
+        Random rnd = new Random(17); // Fixed seed, so every run sorts the same file
+        byte[] block = new byte[1 << 20];
+        try (RandomAccessFile out = new RandomAccessFile(original, "rw")) {
+            for (int i = 0; i < megabytes; ++i) {
+                rnd.nextBytes(block);
+                out.write(block, 0, block.length - block.length % 3); // A whole number of 24-bit values
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() throws IOException {
+        Files.copy(original.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeFile() throws IOException {
+        raf.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        original.delete();
+        file.delete();
+    }
+
+    @Benchmark
+    public void sortBytes() throws IOException {
+        RandomAccess.sortBytes(raf.getChannel(), threads);
+    }
+
+    @Benchmark
+    public void sortTriBytes() throws IOException {
+        RandomAccess.sortTriBytes(raf, ExternalRecordSorter.DEFAULT_MEMORY_BUDGET, threads);
+    }
+}
@@ -0,0 +1,781 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Implements a persistent dictionary as a B+tree stored on disk.
+ * Only the pages along the path to a key are read, so lookups and updates
+ * touch O(log n) pages, and {@link #open()} reads just the file header.
+ * <p>
+ * The file is an array of fixed-size pages, accessed through a {@link FileChannel}.
+ * Page 0 is the header:
+ *
+ * <pre>
+ * magic pageSize root pageCount size bloomStamp
+ * </pre>
+ * <p>
+ * Every other page is a node. A leaf holds sorted (key, value) pairs and the
+ * number of the next leaf; an internal node holds n sorted separator keys and
+ * n+1 child page numbers, where every key in child i+1 is at least separator i.
+ * Strings are stored as a 2-byte length followed by their UTF-8 bytes, so an
+ * entry may take up at most a quarter of a page.
+ * <p>
+ * Clean pages are kept in a bounded LRU cache, and so are modified pages. The
+ * pages of the tree as of the last {@link #close()} are never overwritten before
+ * the next one, which is what lets {@link #open()} undo any changes since then:
+ * a modified page evicted from memory is written to a shadow file next to the
+ * tree (or, if it is a page added since, straight to its place in the tree), and
+ * {@link #close()} copies the shadow pages into place before writing the header.
+ * Removing keys never merges nodes; underfull leaves stay in place until their
+ * key range is reused.
+ * <p>
+ * A {@link BloomFilter} of the keys is kept in a file next to the tree, so most
+ * lookups of missing keys don't read any pages. The filter is rebuilt (by scanning
+ * the leaves) when it is missing or the tree outgrows it.
+ */
+public class BTreeDictionary implements PersistentDictionary {
+    public static final int DEFAULT_PAGE_SIZE = 8192;
+    public static final int DEFAULT_CACHE_PAGES = 1024;
+
+    static final int MAGIC = 0x42545245; // "BTRE"
+    static final int HEADER = 28;
+    static final int DEFAULT_BLOOM_CAPACITY = 1024;
+    static final int NODE_HEADER = 7; // type, count and next leaf (or first child)
+    static final byte LEAF = 0;
+    static final byte INTERNAL = 1;
+
+    private final File dictFile;
+    private final int cachePages;
+    private int pageSize;
+
+    private FileChannel channel;
+    private int root;
+    private int pageCount;
+    private int committedPages; // pageCount as of the last close; these pages mustn't be overwritten before the next
+    private int size;
+
+    private BloomFilter bloom; // null while the filter on disk is missing or stale
+    private long bloomStamp;
+    private boolean bloomChanged;
+
+    private final LinkedHashMap<Integer, Node> dirty = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, Node> cache;
+
+    private FileChannel shadow; // Modified committed pages evicted from memory, opened when first needed
+    private long bytesWritten; // Since the last open or close, including evicted pages
+    private long lastFlushBytes;
+    private long bytesRead;
+    private final Map<Integer, Integer> shadowSlots = new HashMap<>(); // page -> slot in the shadow file
+
+    public BTreeDictionary(File dictFile) {
+        this(dictFile, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_PAGES);
+    }
+
+    /**
+     * @param dictFile   the file holding the tree
+     * @param pageSize   size of a page, used only when a new file is created
+     * @param cachePages maximum number of clean pages, and of modified pages, to keep in memory
+     */
+    public BTreeDictionary(File dictFile, int pageSize, int cachePages) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        if (pageSize < 256 || pageSize > 65536) {
+            throw new IllegalArgumentException("Page size must be between 256 and 65536 bytes");
+        }
+        if (cachePages < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one page");
+        }
+        this.dictFile = dictFile;
+        this.pageSize = pageSize;
+        this.cachePages = cachePages;
+        this.cache = new LinkedHashMap<Integer, Node>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Node> eldest) {
+                return size() > BTreeDictionary.this.cachePages;
+            }
+        };
+    }
+
+    @Override
+    public void open() throws IOException {
+        closeChannel(); // Drops any changes since the last close
+        channel = FileChannel.open(dictFile.toPath(), CREATE, READ, WRITE);
+
+        if (channel.size() == 0) {
+            pageCount = 1;
+            committedPages = 1;
+            root = newNode(true).id;
+            size = 0;
+            bloom = new BloomFilter(DEFAULT_BLOOM_CAPACITY, BloomFilter.DEFAULT_FPP);
+            bloomChanged = true;
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            closeChannel();
+            throw new IOException("Not a B-tree dictionary file: " + dictFile.getAbsolutePath());
+        }
+        pageSize = header.getInt();
+        root = header.getInt();
+        pageCount = header.getInt();
+        committedPages = pageCount;
+        size = header.getInt();
+        bloomStamp = header.getLong();
+        bloom = BloomFilter.read(BloomFilter.fileFor(dictFile), bloomStamp);
+        bloomChanged = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lastFlushBytes = 0;
+        if (channel == null) {
+            return; // Never opened, nothing to flush
+        }
+        try {
+            if (bloom == null || size > bloom.capacity()) {
+                rebuildBloom();
+            }
+            if (bloomChanged) {
+                // Written before the header, so a crash in between leaves mismatched stamps rather than a stale filter
+                bloomStamp = new Random().nextLong();
+                bloom.write(BloomFilter.fileFor(dictFile), bloomStamp);
+            }
+            for (Node node : dirty.values()) {
+                writeNode(node, channel, (long) node.id * pageSize);
+            }
+            ByteBuffer page = ByteBuffer.allocate(pageSize);
+            for (Map.Entry<Integer, Integer> slot : shadowSlots.entrySet()) {
+                if (slot.getKey() < pageCount && !dirty.containsKey(slot.getKey())) {
+                    page.clear();
+                    readFully(shadow, page, (long) slot.getValue() * pageSize);
+                    page.flip();
+                    writeFully(channel, page, (long) slot.getKey() * pageSize);
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(pageSize).putInt(root).putInt(pageCount).putInt(size).putLong(bloomStamp);
+            header.flip();
+            writeFully(channel, header, 0);
+            if (channel.size() > (long) pageCount * pageSize) {
+                channel.truncate((long) pageCount * pageSize); // After a clear(), or pages added and then undone
+            }
+            lastFlushBytes = bytesWritten;
+        } catch (IOException e) {
+            throw new IOException("Failed to write to the dictionary file: " + dictFile.getAbsolutePath(), e);
+        } finally {
+            closeChannel();
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        String k = (String) Objects.requireNonNull(key);
+        if (!mightContain(k)) {
+            return null;
+        }
+        Node leaf = findLeaf(k);
+        int i = Collections.binarySearch(leaf.keys, k);
+        if (i < 0) {
+            falsePositive();
+            return null;
+        }
+        return leaf.values.get(i);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        if (leafEntrySize(key, value) > (pageSize - NODE_HEADER) / 4) {
+            throw new IllegalArgumentException("Entry is too large for a " + pageSize + "-byte page");
+        }
+        ensureOpen();
+
+        Insertion result = new Insertion();
+        insert(root, key, value, result);
+        if (result.right != null) {
+            // The root was split; grow the tree by one level
+            Node newRoot = newNode(false);
+            newRoot.children.add(root);
+            newRoot.keys.add(result.separator);
+            newRoot.children.add(result.right.id);
+            root = newRoot.id;
+        }
+        if (result.old == null) {
+            ++size;
+            if (bloom != null) {
+                bloom.add(key);
+                bloomChanged = true;
+            }
+        }
+        evictDirty();
+        return result.old;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String k = (String) Objects.requireNonNull(key);
+        if (!mightContain(k)) {
+            return false;
+        }
+        if (Collections.binarySearch(findLeaf(k).keys, k) < 0) {
+            falsePositive();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String k = (String) Objects.requireNonNull(key);
+        if (!mightContain(k)) {
+            return null;
+        }
+        Node leaf = findLeaf(k);
+        int i = Collections.binarySearch(leaf.keys, k);
+        if (i < 0) {
+            falsePositive();
+            return null;
+        }
+        markDirty(leaf);
+        leaf.keys.remove(i);
+        --size;
+        String old = leaf.values.remove(i);
+        evictDirty();
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        ensureOpen();
+        dirty.clear();
+        cache.clear();
+        shadowSlots.clear();
+        pageCount = 1;
+        root = newNode(true).id;
+        size = 0;
+        bloom = new BloomFilter(DEFAULT_BLOOM_CAPACITY, BloomFilter.DEFAULT_FPP);
+        bloomChanged = true;
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map, in key order,
+     * so that consecutive keys land in the same (cached) leaf. An empty tree is
+     * instead bulk-loaded: its leaves are filled left to right, and the internal
+     * levels are built above them, without any splits.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map) {
+        List<Map.Entry<String, String>> batch = Batch.sortedEntries(map);
+        for (Map.Entry<String, String> entry : batch) {
+            if (leafEntrySize(entry.getKey(), entry.getValue()) > (pageSize - NODE_HEADER) / 4) {
+                throw new IllegalArgumentException("Entry is too large for a " + pageSize + "-byte page");
+            }
+        }
+        ensureOpen();
+        if (size == 0 && !batch.isEmpty()) {
+            bulkLoad(batch);
+            evictDirty();
+            return;
+        }
+        for (Map.Entry<String, String> entry : batch) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Looks up the keys in key order, so that keys in the same leaf share a single descent.
+     */
+    @Override
+    public Map<String, String> getAll(Collection<? extends String> keys) {
+        Map<String, String> found = new HashMap<>();
+        Node leaf = null;
+        for (String key : Batch.sortedKeys(keys)) {
+            if (!mightContain(key)) {
+                continue;
+            }
+            // A key between the first and last keys of a leaf can only be in that leaf
+            if (leaf == null || leaf.keys.isEmpty() || key.compareTo(leaf.keys.get(leaf.keys.size() - 1)) > 0
+                    || key.compareTo(leaf.keys.get(0)) < 0) {
+                leaf = findLeaf(key);
+            }
+            int i = Collections.binarySearch(leaf.keys, key);
+            if (i < 0) {
+                falsePositive();
+            } else {
+                found.put(key, leaf.values.get(i));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Replace the (empty) tree with one built bottom-up from sorted, distinct entries.
+     */
+    private void bulkLoad(List<Map.Entry<String, String>> batch) {
+        clear(); // Reuses the pages of the empty tree
+        bloom = new BloomFilter(Math.max(DEFAULT_BLOOM_CAPACITY, 2 * batch.size()), BloomFilter.DEFAULT_FPP);
+
+        // The nodes of the level being built, and the lowest key under each
+        List<Node> level = new ArrayList<>();
+        List<String> lowKeys = new ArrayList<>();
+        Node leaf = getNode(root);
+        int bytes = NODE_HEADER;
+        for (Map.Entry<String, String> entry : batch) {
+            int entrySize = leafEntrySize(entry.getKey(), entry.getValue());
+            if (bytes + entrySize > pageSize) {
+                Node next = newNode(true);
+                leaf.next = next.id;
+                leaf = next;
+                bytes = NODE_HEADER;
+                evictDirty(); // Only the newest leaf is still being filled
+            }
+            if (leaf.keys.isEmpty()) {
+                level.add(leaf);
+                lowKeys.add(entry.getKey());
+            }
+            leaf.keys.add(entry.getKey());
+            leaf.values.add(entry.getValue());
+            bytes += entrySize;
+            bloom.add(entry.getKey());
+        }
+
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<>();
+            List<String> parentLowKeys = new ArrayList<>();
+            Node parent = null;
+            for (int i = 0; i < level.size(); ++i) {
+                String separator = lowKeys.get(i);
+                if (parent == null || bytes + internalEntrySize(separator) > pageSize) {
+                    // The child starts a new parent, and its low key moves up a level
+                    parent = newNode(false);
+                    parent.children.add(level.get(i).id);
+                    parents.add(parent);
+                    parentLowKeys.add(separator);
+                    bytes = NODE_HEADER;
+                    evictDirty(); // Only the newest parent is still being filled
+                } else {
+                    parent.keys.add(separator);
+                    parent.children.add(level.get(i).id);
+                    bytes += internalEntrySize(separator);
+                }
+            }
+            level = parents;
+            lowKeys = parentLowKeys;
+        }
+        root = level.get(0).id;
+        size = batch.size();
+    }
+
+    /**
+     * Returns an iterator over a range of the dictionary. It finds the leaf where
+     * the range starts, then follows the chain of leaves, one page at a time.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        if (ScanIterator.isEmpty(from, to)) {
+            return Collections.emptyIterator();
+        }
+        String lo = from == null ? "" : from; // The empty string is below every other key
+        Node first = findLeaf(lo);
+        int start = Collections.binarySearch(first.keys, lo);
+        return new ScanIterator() {
+            private Node leaf = first;
+            private int i = start >= 0 ? start : -start - 1;
+
+            @Override
+            Map.Entry<String, String> advance() {
+                while (i >= leaf.keys.size()) { // Removes may leave empty leaves
+                    if (leaf.next < 0) {
+                        return null;
+                    }
+                    leaf = getNode(leaf.next);
+                    i = 0;
+                }
+                String key = leaf.keys.get(i);
+                if (isPast(key, to)) {
+                    return null;
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(key, leaf.values.get(i++));
+            }
+        };
+    }
+
+    /**
+     * Returns the fraction of lookups of missing keys since the last {@link #open()}
+     * that the Bloom filter failed to answer without reading the tree.
+     *
+     * @return the measured false-positive rate, or 0 if no missing key was looked up.
+     */
+    public double getBloomFalsePositiveRate() {
+        return bloom == null ? 0 : bloom.falsePositiveRate();
+    }
+
+    /**
+     * Returns the size of the pages written since the previous flush, including
+     * those written out of memory before the last {@link #close()}, and the header.
+     */
+    @Override
+    public long getLastFlushBytes() {
+        return lastFlushBytes;
+    }
+
+    /**
+     * Returns the size of the headers and pages read, from the tree and its shadow file.
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of modified pages held in memory.
+     */
+    int getDirtyPageCount() {
+        return dirty.size();
+    }
+
+    /**
+     * A node of the tree, as decoded from its page.
+     */
+    static class Node {
+        final int id;
+        final boolean leaf;
+        final List<String> keys = new ArrayList<>();
+        final List<String> values; // leaves only
+        final List<Integer> children; // internal nodes only
+        int next = -1; // leaves only
+
+        Node(int id, boolean leaf) {
+            this.id = id;
+            this.leaf = leaf;
+            this.values = leaf ? new ArrayList<>() : null;
+            this.children = leaf ? null : new ArrayList<>();
+        }
+
+        int encodedSize() {
+            int bytes = NODE_HEADER;
+            for (int i = 0; i < keys.size(); ++i) {
+                bytes += leaf ? leafEntrySize(keys.get(i), values.get(i)) : internalEntrySize(keys.get(i));
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * The result of inserting into a subtree: the previous value of the key and,
+     * if the subtree's root was split, the new right sibling and its separator.
+     */
+    private static class Insertion {
+        String old;
+        String separator;
+        Node right;
+    }
+
+    private void insert(int id, String key, String value, Insertion result) {
+        Node node = getNode(id);
+        int i = Collections.binarySearch(node.keys, key);
+
+        if (node.leaf) {
+            markDirty(node);
+            if (i >= 0) {
+                result.old = node.values.set(i, value); // A longer value may still overflow the page
+            } else {
+                node.keys.add(-i - 1, key);
+                node.values.add(-i - 1, value);
+            }
+        } else {
+            int child = i >= 0 ? i + 1 : -i - 1;
+            insert(node.children.get(child), key, value, result);
+            if (result.right == null) {
+                return;
+            }
+            markDirty(node);
+            node.keys.add(child, result.separator);
+            node.children.add(child + 1, result.right.id);
+            result.right = null;
+        }
+
+        if (node.encodedSize() > pageSize) {
+            split(node, result);
+        }
+    }
+
+    private void split(Node node, Insertion result) {
+        // Split by bytes rather than by count, so both halves fit in a page
+        int half = node.encodedSize() / 2;
+        int bytes = NODE_HEADER;
+        int mid = 0;
+        while (bytes < half && mid < node.keys.size() - 1) {
+            bytes += node.leaf ? leafEntrySize(node.keys.get(mid), node.values.get(mid))
+                    : internalEntrySize(node.keys.get(mid));
+            ++mid;
+        }
+
+        Node right = newNode(node.leaf);
+        if (node.leaf) {
+            right.keys.addAll(node.keys.subList(mid, node.keys.size()));
+            right.values.addAll(node.values.subList(mid, node.values.size()));
+            node.keys.subList(mid, node.keys.size()).clear();
+            node.values.subList(mid, node.values.size()).clear();
+            right.next = node.next;
+            node.next = right.id;
+            result.separator = right.keys.get(0);
+        } else {
+            // The middle key moves up to the parent
+            result.separator = node.keys.get(mid);
+            right.keys.addAll(node.keys.subList(mid + 1, node.keys.size()));
+            right.children.addAll(node.children.subList(mid + 1, node.children.size()));
+            node.keys.subList(mid, node.keys.size()).clear();
+            node.children.subList(mid + 1, node.children.size()).clear();
+        }
+        result.right = right;
+    }
+
+    private boolean mightContain(String key) {
+        ensureOpen();
+        return bloom == null || bloom.mightContain(key);
+    }
+
+    private void falsePositive() {
+        if (bloom != null) {
+            bloom.recordFalsePositive();
+        }
+    }
+
+    /**
+     * Build a new filter, with room to grow, from the keys in the leaves.
+     */
+    private void rebuildBloom() {
+        bloom = new BloomFilter(Math.max(DEFAULT_BLOOM_CAPACITY, 2 * size), BloomFilter.DEFAULT_FPP);
+        bloomChanged = true;
+        Node node = getNode(root);
+        while (!node.leaf) {
+            node = getNode(node.children.get(0));
+        }
+        while (true) {
+            for (String key : node.keys) {
+                bloom.add(key);
+            }
+            if (node.next < 0) {
+                break;
+            }
+            node = getNode(node.next);
+        }
+    }
+
+    private Node findLeaf(String key) {
+        ensureOpen();
+        Node node = getNode(root);
+        while (!node.leaf) {
+            int i = Collections.binarySearch(node.keys, key);
+            node = getNode(node.children.get(i >= 0 ? i + 1 : -i - 1));
+        }
+        return node;
+    }
+
+    private Node newNode(boolean leaf) {
+        Node node = new Node(pageCount++, leaf);
+        dirty.put(node.id, node);
+        return node;
+    }
+
+    private void markDirty(Node node) {
+        if (dirty.put(node.id, node) == null) {
+            cache.remove(node.id);
+        }
+    }
+
+    /**
+     * Write the least recently used modified pages out of memory, until at most
+     * {@code cachePages} are left. Called between updates, when no node is
+     * being changed, since a node written out and then changed would lose the change.
+     */
+    private void evictDirty() {
+        Iterator<Node> eldest = dirty.values().iterator();
+        while (dirty.size() > cachePages) {
+            Node node = eldest.next();
+            eldest.remove();
+            try {
+                if (node.id >= committedPages) {
+                    writeNode(node, channel, (long) node.id * pageSize); // Not part of the committed tree
+                } else {
+                    writeNode(node, shadow(), (long) shadowSlot(node.id) * pageSize);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write page " + node.id + " of " + dictFile.getAbsolutePath(), e);
+            }
+            cache.put(node.id, node); // Now it is as clean as the copy on disk
+        }
+    }
+
+    private FileChannel shadow() throws IOException {
+        if (shadow == null) {
+            shadow = FileChannel.open(shadowFileFor(dictFile).toPath(), CREATE, READ, WRITE, TRUNCATE_EXISTING);
+        }
+        return shadow;
+    }
+
+    private int shadowSlot(int id) {
+        return shadowSlots.computeIfAbsent(id, page -> shadowSlots.size());
+    }
+
+    /**
+     * Return the file holding the modified pages evicted from memory since the last close.
+     */
+    static File shadowFileFor(File dictFile) {
+        return new File(dictFile.getPath() + ".shadow");
+    }
+
+    private Node getNode(int id) {
+        Node node = dirty.get(id);
+        if (node == null) {
+            node = cache.get(id);
+        }
+        if (node == null) {
+            try {
+                node = readNode(id);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read page " + id + " of " + dictFile.getAbsolutePath(), e);
+            }
+            cache.put(id, node);
+        }
+        return node;
+    }
+
+    private Node readNode(int id) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        Integer slot = shadowSlots.get(id);
+        if (slot != null) {
+            readFully(shadow, page, (long) slot * pageSize);
+        } else {
+            readFully(channel, page, (long) id * pageSize);
+        }
+        page.flip();
+
+        Node node = new Node(id, page.get() == LEAF);
+        int count = page.getShort() & 0xFFFF;
+        if (node.leaf) {
+            node.next = page.getInt();
+            for (int i = 0; i < count; ++i) {
+                node.keys.add(getString(page));
+                node.values.add(getString(page));
+            }
+        } else {
+            node.children.add(page.getInt());
+            for (int i = 0; i < count; ++i) {
+                node.keys.add(getString(page));
+                node.children.add(page.getInt());
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(Node node, FileChannel file, long position) throws IOException {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        page.put(node.leaf ? LEAF : INTERNAL);
+        page.putShort((short) node.keys.size());
+        if (node.leaf) {
+            page.putInt(node.next);
+            for (int i = 0; i < node.keys.size(); ++i) {
+                putString(page, node.keys.get(i));
+                putString(page, node.values.get(i));
+            }
+        } else {
+            page.putInt(node.children.get(0));
+            for (int i = 0; i < node.keys.size(); ++i) {
+                putString(page, node.keys.get(i));
+                page.putInt(node.children.get(i + 1));
+            }
+        }
+        page.clear(); // Write out the whole page, so the file is always a whole number of pages
+        writeFully(file, page, position);
+    }
+
+    static int leafEntrySize(String key, String value) {
+        return 4 + Utf8.encodedLength(key) + Utf8.encodedLength(value);
+    }
+
+    static int internalEntrySize(String key) {
+        return 6 + Utf8.encodedLength(key);
+    }
+
+    private static void putString(ByteBuffer page, String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        page.putShort((short) bytes.length);
+        page.put(bytes);
+    }
+
+    private static String getString(ByteBuffer page) {
+        int length = page.getShort() & 0xFFFF;
+        String str = new String(page.array(), page.position(), length, StandardCharsets.UTF_8);
+        page.position(page.position() + length);
+        return str;
+    }
+
+    private void readFully(FileChannel file, ByteBuffer buf, long position) throws IOException {
+        bytesRead += buf.remaining();
+        while (buf.hasRemaining()) {
+            if (file.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of dictionary file: " + dictFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private void writeFully(FileChannel file, ByteBuffer buf, long position) throws IOException {
+        bytesWritten += buf.remaining();
+        while (buf.hasRemaining()) {
+            file.write(buf, position + buf.position());
+        }
+    }
+
+    private void ensureOpen() {
+        if (channel == null) {
+            try {
+                open();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        dirty.clear();
+        cache.clear();
+        shadowSlots.clear();
+        bloom = null;
+        bytesWritten = 0;
+        if (shadow != null) {
+            FileChannel s = shadow;
+            shadow = null;
+            s.close();
+            Files.deleteIfExists(shadowFileFor(dictFile).toPath());
+        }
+        if (channel != null) {
+            FileChannel c = channel;
+            channel = null;
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package dict;
+
+import java.util.*;
+
+/**
+ * Helpers for the batch operations of {@link PersistentDictionary}, which
+ * apply a batch in key order.
+ */
+final class Batch {
+    private Batch() {
+    }
+
+    /**
+     * Return the mappings of a batch, sorted by key.
+     */
+    static List<Map.Entry<String, String>> sortedEntries(Map<? extends String, ? extends String> map) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(map.size());
+        for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                    Objects.requireNonNull(entry.getKey()), Objects.requireNonNull(entry.getValue())));
+        }
+        if (!isNaturallySorted(map)) {
+            entries.sort(Map.Entry.comparingByKey());
+        }
+        return entries;
+    }
+
+    /**
+     * Return the keys of a batch, sorted.
+     */
+    static List<String> sortedKeys(Collection<? extends String> keys) {
+        List<String> sorted = new ArrayList<>(keys);
+        for (String key : sorted) {
+            Objects.requireNonNull(key);
+        }
+        if (!(keys instanceof SortedSet && ((SortedSet<?>) keys).comparator() == null)) {
+            Collections.sort(sorted);
+        }
+        return sorted;
+    }
+
+    private static boolean isNaturallySorted(Map<?, ?> map) {
+        return map instanceof SortedMap && ((SortedMap<?, ?>) map).comparator() == null;
+    }
+}
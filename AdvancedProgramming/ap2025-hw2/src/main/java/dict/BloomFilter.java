@@ -0,0 +1,154 @@
+package dict;
+
+import java.io.*;
+
+/**
+ * A Bloom filter over dictionary keys, used by disk-backed dictionaries to
+ * answer most lookups of missing keys without reading the disk.
+ * <p>
+ * A filter is persisted in a file next to its dictionary, together with a
+ * stamp that the dictionary also stores in its own file. When the stamps
+ * don't match (e.g. the dictionary was rewritten without the filter), the
+ * filter is ignored.
+ * <p>
+ * The filter also measures its own false-positive rate: the dictionary reports
+ * every key that passed the filter but wasn't found.
+ */
+final class BloomFilter {
+    static final int MAGIC = 0x424c4f4d; // "BLOM"
+    static final double DEFAULT_FPP = 0.01;
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private final int capacity;
+
+    private long negatives;
+    private long falsePositives;
+
+    /**
+     * Create an empty filter for up to {@code capacity} keys, with a false-positive
+     * rate of about {@code fpp} once it holds that many.
+     */
+    BloomFilter(int capacity, double fpp) {
+        this.capacity = Math.max(1, capacity);
+        long m = (long) Math.ceil(-this.capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / this.capacity * Math.log(2)));
+        this.bits = new long[(int) (numBits / 64)];
+    }
+
+    private BloomFilter(long[] bits, int numHashes, int capacity) {
+        this.bits = bits;
+        this.numBits = 64L * bits.length;
+        this.numHashes = numHashes;
+        this.capacity = capacity;
+    }
+
+    /**
+     * The number of keys the filter was sized for.
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    void add(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; ++i) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if the key is certainly not in the dictionary
+     */
+    boolean mightContain(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; ++i) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                ++negatives;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Report that a key which passed {@link #mightContain(String)} wasn't in the dictionary.
+     */
+    void recordFalsePositive() {
+        ++falsePositives;
+    }
+
+    /**
+     * @return the fraction of lookups of missing keys that the filter failed to reject,
+     *         or 0 if there were none yet.
+     */
+    double falsePositiveRate() {
+        long missing = negatives + falsePositives;
+        return missing == 0 ? 0 : (double) falsePositives / missing;
+    }
+
+    void write(File file, long stamp) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(stamp);
+            out.writeInt(numHashes);
+            out.writeInt(capacity);
+            out.writeInt(bits.length);
+            for (long word : bits) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Read a filter from a file.
+     *
+     * @return the filter, or null if the file doesn't exist or doesn't have the expected stamp.
+     */
+    static BloomFilter read(File file, long stamp) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readLong() != stamp) {
+                return null;
+            }
+            int numHashes = in.readInt();
+            int capacity = in.readInt();
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; ++i) {
+                bits[i] = in.readLong();
+            }
+            return new BloomFilter(bits, numHashes, capacity);
+        } catch (EOFException e) {
+            return null; // A truncated filter is as good as none
+        }
+    }
+
+    /**
+     * Return the file holding the filter of a dictionary file.
+     */
+    static File fileFor(File dictFile) {
+        return new File(dictFile.getPath() + ".bloom");
+    }
+
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L; // FNV-1a over the UTF-16 chars, then mixed
+        for (int i = 0; i < key.length(); ++i) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
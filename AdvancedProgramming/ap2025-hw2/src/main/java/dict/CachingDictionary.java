@@ -0,0 +1,304 @@
+package dict;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A persistent dictionary that keeps recently used definitions of another
+ * dictionary in memory, for dictionaries that don't hold everything in the heap
+ * (such as {@link BTreeDictionary} or {@link CompressedDictionary}).
+ * <p>
+ * The cache holds entries up to a total weight, evicting the least recently
+ * used ones first. By default every entry weighs 1, so the bound is a number
+ * of entries; a {@link Weigher} can bound it by size instead. Lookups of
+ * missing keys are cached too, so repeated misses don't reach the underlying
+ * dictionary either.
+ * <p>
+ * In {@link WriteMode#WRITE_THROUGH} mode, changes go to the underlying
+ * dictionary right away. In {@link WriteMode#WRITE_BACK} mode, they are only
+ * kept in the cache, and written to the underlying dictionary when they are
+ * evicted or on {@link #close()}.
+ * <p>
+ * The hit, miss and eviction counters cover the lookups (including those made by
+ * {@link #put(String, String)} and {@link #remove(Object)} to find the previous
+ * value) since the last {@link #open()}.
+ */
+public class CachingDictionary implements PersistentDictionary {
+    public enum WriteMode {
+        WRITE_THROUGH,
+        WRITE_BACK
+    }
+
+    /**
+     * Computes how much of the cache an entry takes.
+     */
+    public interface Weigher {
+        /**
+         * @param key   the entry's key
+         * @param value the entry's value, or null for a cached miss
+         * @return the entry's weight, at least 0
+         */
+        long weigh(String key, String value);
+    }
+
+    /**
+     * Weighs entries by their approximate size in bytes.
+     */
+    public static final Weigher CHARS = (key, value) -> 2L * (key.length() + (value == null ? 0 : value.length()));
+
+    private static final Weigher ENTRIES = (key, value) -> 1;
+
+    private final PersistentDictionary delegate;
+    private final long maxWeight;
+    private final Weigher weigher;
+    private final WriteMode mode;
+
+    // Access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<String, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private int size; // Only maintained in write-back mode
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static class Cached {
+        String value; // null if the key is not in the dictionary
+        boolean dirty; // Not yet written to the underlying dictionary
+        long weight;
+    }
+
+    /**
+     * Create a cache of up to {@code maxEntries} entries.
+     */
+    public CachingDictionary(PersistentDictionary delegate, int maxEntries, WriteMode mode) {
+        this(delegate, maxEntries, ENTRIES, mode);
+    }
+
+    /**
+     * Create a cache of entries up to a total weight.
+     *
+     * @param delegate  the dictionary to cache
+     * @param maxWeight the maximum total weight of the cached entries
+     * @param weigher   computes the weight of each entry, e.g. {@link #CHARS}
+     * @param mode      when changes are written to the underlying dictionary
+     */
+    public CachingDictionary(PersistentDictionary delegate, long maxWeight, Weigher weigher, WriteMode mode) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Dictionary cannot be null");
+        }
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("Maximum weight cannot be negative: " + maxWeight);
+        }
+        this.delegate = delegate;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.mode = mode;
+    }
+
+    @Override
+    public void open() throws IOException {
+        cache.clear(); // Unwritten changes are undone, as the contract requires
+        weight = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        delegate.open();
+        size = delegate.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mode == WriteMode.WRITE_BACK) {
+            // In key order, which suits sorted on-disk structures best
+            TreeMap<String, Cached> dirty = new TreeMap<>();
+            for (Map.Entry<String, Cached> entry : cache.entrySet()) {
+                if (entry.getValue().dirty) {
+                    dirty.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Cached> entry : dirty.entrySet()) {
+                writeBack(entry.getKey(), entry.getValue());
+            }
+        }
+        cache.clear();
+        weight = 0;
+        delegate.close();
+    }
+
+    @Override
+    public long getLastFlushBytes() {
+        return delegate.getLastFlushBytes();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return delegate.getBytesRead();
+    }
+
+    @Override
+    public String get(Object key) {
+        return lookup((String) key).value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return lookup((String) key).value != null;
+    }
+
+    @Override
+    public int size() {
+        return mode == WriteMode.WRITE_BACK ? size : delegate.size();
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        String previous;
+        boolean dirty;
+        if (mode == WriteMode.WRITE_BACK) {
+            previous = lookup(key).value;
+            if (previous == null) {
+                ++size;
+            }
+            dirty = true;
+        } else {
+            previous = delegate.put(key, value);
+            dirty = false;
+        }
+        store(key, value, dirty);
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String k = (String) key;
+        String previous;
+        boolean dirty;
+        if (mode == WriteMode.WRITE_BACK) {
+            previous = lookup(k).value;
+            if (previous == null) {
+                return null; // Nothing to remove
+            }
+            --size;
+            dirty = true;
+        } else {
+            previous = delegate.remove(k);
+            dirty = false;
+        }
+        store(k, null, dirty);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+        weight = 0;
+        size = 0;
+        delegate.clear();
+    }
+
+    /**
+     * Returns an iterator over a range of the underlying dictionary. In write-back
+     * mode, the changes in the cache are written to the underlying dictionary first.
+     * The scanned entries are not cached.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        if (mode == WriteMode.WRITE_BACK) {
+            for (Map.Entry<String, Cached> entry : cache.entrySet()) {
+                writeBack(entry.getKey(), entry.getValue());
+            }
+        }
+        return delegate.range(from, to);
+    }
+
+    /**
+     * @return the number of lookups answered by the cache
+     */
+    public long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that had to read the underlying dictionary
+     */
+    public long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries evicted to make room for others
+     */
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the fraction of lookups answered by the cache, or 0 if there were none
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Find a key in the cache, loading it from the underlying dictionary on a miss.
+     */
+    private Cached lookup(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        Cached cached = cache.get(key);
+        if (cached != null) {
+            ++hits;
+            return cached;
+        }
+        ++misses;
+        return store(key, delegate.get(key), false);
+    }
+
+    /**
+     * Cache a value (null for a missing key), then evict entries until the cache fits.
+     */
+    private Cached store(String key, String value, boolean dirty) {
+        Cached cached = cache.get(key);
+        if (cached == null) {
+            cached = new Cached();
+            cache.put(key, cached);
+        } else {
+            weight -= cached.weight;
+        }
+        cached.value = value;
+        cached.dirty |= dirty;
+        cached.weight = weigher.weigh(key, value);
+        weight += cached.weight;
+
+        Iterator<Map.Entry<String, Cached>> eldest = cache.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Map.Entry<String, Cached> entry = eldest.next();
+            if (entry.getValue() == cached) {
+                continue; // Keep the entry we were asked for, even if it is too heavy
+            }
+            eldest.remove();
+            weight -= entry.getValue().weight;
+            ++evictions;
+            writeBack(entry.getKey(), entry.getValue());
+        }
+        return cached;
+    }
+
+    private void writeBack(String key, Cached cached) {
+        if (!cached.dirty) {
+            return;
+        }
+        if (cached.value == null) {
+            delegate.remove(key);
+        } else {
+            delegate.put(key, cached.value);
+        }
+        cached.dirty = false;
+    }
+}
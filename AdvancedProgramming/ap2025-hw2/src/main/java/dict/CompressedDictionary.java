@@ -0,0 +1,648 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Implements a persistent dictionary stored in a compact, compressed file.
+ * <p>
+ * The entries are sorted by key and grouped into blocks. Within a block, each
+ * key is front-coded (stored as the length of the prefix it shares with the
+ * previous key, followed by the rest of it), and the values are compressed
+ * together with {@link Deflater}. The file is:
+ *
+ * <pre>
+ * magic
+ * block[0] ... block[n-1]
+ * index: n, then for every block its first key, offset and length
+ * footer: index offset, entry count, bloom stamp, magic
+ * </pre>
+ * <p>
+ * {@link #open()} reads only the footer and the block index, and a lookup reads
+ * and decodes a single block (its values are inflated only when a key in it is
+ * found). A few recently used blocks are cached. A {@link BloomFilter} of the
+ * keys, kept in a file next to the dictionary, lets most lookups of missing keys
+ * skip the block reads altogether.
+ * <p>
+ * Changes are held in memory until {@link #close()}, which merges them with the
+ * blocks on disk in a single sequential pass and replaces the file. Closing an
+ * unchanged dictionary doesn't touch the file.
+ */
+public class CompressedDictionary implements PersistentDictionary {
+    public static final int DEFAULT_BLOCK_ENTRIES = 128;
+    static final int CACHED_BLOCKS = 16;
+    static final int MAGIC = 0x44435a31; // "DCZ1"
+    static final int FOOTER = 24;
+
+    // Marks a removed key in the overlay of changes
+    private static final String REMOVED = new String("<removed>");
+
+    private final File dictFile;
+    private final int blockEntries;
+
+    private FileChannel channel;
+    private String[] blockFirstKeys = new String[0];
+    private long[] blockOffsets = new long[0];
+    private int[] blockLengths = new int[0];
+    private BloomFilter bloom; // null if the file has no (matching) filter
+
+    // Changes since the last open(); removed keys map to REMOVED
+    private final TreeMap<String, String> overlay = new TreeMap<>();
+    private boolean cleared;
+    private int size;
+    private long bytesRead;
+
+    private final LinkedHashMap<Integer, Block> cache = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    public CompressedDictionary(File dictFile) {
+        this(dictFile, DEFAULT_BLOCK_ENTRIES);
+    }
+
+    /**
+     * @param dictFile     the dictionary file
+     * @param blockEntries the number of entries per block when the file is written
+     */
+    public CompressedDictionary(File dictFile, int blockEntries) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        if (blockEntries < 1) {
+            throw new IllegalArgumentException("Blocks must hold at least one entry");
+        }
+        this.dictFile = dictFile;
+        this.blockEntries = blockEntries;
+    }
+
+    @Override
+    public void open() throws IOException {
+        closeChannel();
+        overlay.clear();
+        cleared = false;
+        size = 0;
+        blockFirstKeys = new String[0];
+        blockOffsets = new long[0];
+        blockLengths = new int[0];
+        bloom = null;
+        if (!dictFile.exists()) {
+            channel = null;
+            return; // An empty dictionary
+        }
+
+        channel = FileChannel.open(dictFile.toPath());
+        try {
+            long fileSize = channel.size();
+            if (fileSize == 0) {
+                closeChannel();
+                return; // An empty file is an empty dictionary
+            }
+            if (fileSize < 4 + FOOTER) {
+                throw new IOException("Not a compressed dictionary file: " + dictFile.getAbsolutePath());
+            }
+            ByteBuffer footer = read(fileSize - FOOTER, FOOTER);
+            long indexOffset = footer.getLong();
+            size = footer.getInt();
+            long bloomStamp = footer.getLong();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Not a compressed dictionary file: " + dictFile.getAbsolutePath());
+            }
+            bloom = BloomFilter.read(BloomFilter.fileFor(dictFile), bloomStamp);
+
+            ByteBuffer index = read(indexOffset, (int) (fileSize - FOOTER - indexOffset));
+            int blocks = index.getInt();
+            blockFirstKeys = new String[blocks];
+            blockOffsets = new long[blocks];
+            blockLengths = new int[blocks];
+            for (int i = 0; i < blocks; ++i) {
+                byte[] key = new byte[index.getInt()];
+                index.get(key);
+                blockFirstKeys[i] = new String(key, StandardCharsets.UTF_8);
+                blockOffsets[i] = index.getLong();
+                blockLengths[i] = index.getInt();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeChannel();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (overlay.isEmpty() && !cleared) {
+                return; // Nothing changed since the last open
+            }
+
+            File tmp = Files.createTempFile(dictFile.getAbsoluteFile().getParentFile().toPath(),
+                    dictFile.getName(), ".tmp").toFile();
+            try {
+                Writer writer = new Writer(tmp, blockEntries, size);
+                try {
+                    mergeInto(writer);
+                } finally {
+                    writer.close();
+                }
+                closeChannel();
+                // Stamps guard against a crash between these two, whichever order they're in
+                writer.bloom.write(BloomFilter.fileFor(dictFile), writer.bloomStamp);
+                Files.move(tmp.toPath(), dictFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                tmp.delete();
+                throw new IOException("Failed to write to the dictionary file: " + dictFile.getAbsolutePath(), e);
+            }
+            overlay.clear();
+            cleared = false;
+        } finally {
+            closeChannel();
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        String k = (String) Objects.requireNonNull(key);
+        String value = overlay.get(k);
+        if (value != null) {
+            return value == REMOVED ? null : value;
+        }
+        if (cleared || (bloom != null && !bloom.mightContain(k))) {
+            return null;
+        }
+        int b = blockFor(k);
+        int i = b < 0 ? -1 : block(b).indexOf(k);
+        if (i < 0) {
+            falsePositive();
+            return null;
+        }
+        return block(b).value(i);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        String old = get(key);
+        overlay.put(key, value);
+        if (old == null) {
+            ++size;
+        }
+        return old;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String k = (String) Objects.requireNonNull(key);
+        String value = overlay.get(k);
+        if (value != null) {
+            return value != REMOVED;
+        }
+        if (cleared || (bloom != null && !bloom.mightContain(k))) {
+            return false;
+        }
+        int b = blockFor(k);
+        if (b < 0 || block(b).indexOf(k) < 0) { // No need to inflate the values
+            falsePositive();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String old = get(key);
+        if (old != null) {
+            overlay.put((String) key, REMOVED);
+            --size;
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        overlay.clear();
+        cleared = true;
+        size = 0;
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map, in key order,
+     * so that the blocks consulted to keep track of the size are read in file order,
+     * each one once. Unlike {@link #put(String, String)}, this never inflates values.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map) {
+        for (Map.Entry<String, String> entry : Batch.sortedEntries(map)) {
+            if (!containsKey(entry.getKey())) {
+                ++size;
+            }
+            overlay.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Looks up the keys in key order, so that blocks are read in file order, each one once.
+     */
+    @Override
+    public Map<String, String> getAll(Collection<? extends String> keys) {
+        Map<String, String> found = new HashMap<>();
+        for (String key : Batch.sortedKeys(keys)) {
+            String value = get(key);
+            if (value != null) {
+                found.put(key, value);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns an iterator over a range of the dictionary. It reads the blocks of
+     * the range in file order, merging in the changes since the last {@link #open()}.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        if (ScanIterator.isEmpty(from, to)) {
+            return Collections.emptyIterator();
+        }
+        String lo = from == null ? "" : from; // The empty string is below every other key
+        Iterator<Map.Entry<String, String>> changes =
+                (to == null ? overlay.tailMap(lo, true) : overlay.subMap(lo, true, to, false)).entrySet().iterator();
+        int firstBlock = cleared ? blockFirstKeys.length : Math.max(0, blockFor(lo));
+        return new ScanIterator() {
+            private Map.Entry<String, String> change = changes.hasNext() ? changes.next() : null;
+            private int b = firstBlock;
+            private Block block;
+            private int i;
+
+            @Override
+            Map.Entry<String, String> advance() {
+                while (true) {
+                    String key = nextKey();
+                    if (key != null && isPast(key, to)) {
+                        key = null;
+                    }
+                    if (change == null && key == null) {
+                        return null;
+                    }
+                    if (key == null || (change != null && change.getKey().compareTo(key) <= 0)) {
+                        Map.Entry<String, String> c = change;
+                        change = changes.hasNext() ? changes.next() : null;
+                        if (c.getKey().equals(key)) {
+                            ++i; // Overridden by the change
+                        }
+                        if (c.getValue() != REMOVED) {
+                            return new AbstractMap.SimpleImmutableEntry<>(c.getKey(), c.getValue());
+                        }
+                    } else {
+                        return new AbstractMap.SimpleImmutableEntry<>(key, block.value(i++));
+                    }
+                }
+            }
+
+            /**
+             * Return the next key in the file at or above the start of the range, or null at the end of the file.
+             */
+            private String nextKey() {
+                while (b < blockFirstKeys.length) {
+                    if (block == null) {
+                        block = block(b);
+                        int j = block.indexOf(lo);
+                        i = j >= 0 ? j : -j - 1;
+                    }
+                    if (i < block.keys.length) {
+                        return block.keys[i];
+                    }
+                    ++b;
+                    block = null;
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the fraction of lookups of missing keys since the last {@link #open()}
+     * that the Bloom filter failed to answer without reading a block.
+     *
+     * @return the measured false-positive rate, or 0 if no missing key was looked up.
+     */
+    public double getBloomFalsePositiveRate() {
+        return bloom == null ? 0 : bloom.falsePositiveRate();
+    }
+
+    private void falsePositive() {
+        if (bloom != null) {
+            bloom.recordFalsePositive();
+        }
+    }
+
+    /**
+     * Return the index of the only block that may contain a key, or -1 if the key precedes all blocks.
+     */
+    private int blockFor(String key) {
+        int lo = 0;
+        int hi = blockFirstKeys.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockFirstKeys[mid].compareTo(key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the size of the footers, indexes and compressed blocks read.
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    private Block block(int b) {
+        Block block = cache.get(b);
+        if (block == null) {
+            block = readBlock(b);
+            cache.put(b, block);
+        }
+        return block;
+    }
+
+    private Block readBlock(int b) {
+        try {
+            return new Block(read(blockOffsets[b], blockLengths[b]));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read block " + b + " of " + dictFile.getAbsolutePath(), e);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        bytesRead += length;
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of dictionary file: " + dictFile.getAbsolutePath());
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private void closeChannel() throws IOException {
+        cache.clear();
+        if (channel != null) {
+            FileChannel c = channel;
+            channel = null;
+            c.close();
+        }
+    }
+
+    /**
+     * Write the entries on disk, updated with the changes in the overlay, in key order.
+     */
+    private void mergeInto(Writer writer) throws IOException {
+        Iterator<Map.Entry<String, String>> changes = overlay.entrySet().iterator();
+        Map.Entry<String, String> change = changes.hasNext() ? changes.next() : null;
+
+        int blocks = cleared ? 0 : blockFirstKeys.length;
+        for (int b = 0; b < blocks; ++b) {
+            Block block = readBlock(b);
+            for (int i = 0; i < block.keys.length; ++i) {
+                String key = block.keys[i];
+                int cmp;
+                while (change != null && (cmp = change.getKey().compareTo(key)) <= 0) {
+                    if (change.getValue() != REMOVED) {
+                        writer.add(change.getKey(), change.getValue());
+                    }
+                    change = changes.hasNext() ? changes.next() : null;
+                    if (cmp == 0) {
+                        key = null; // Overridden by the change
+                        break;
+                    }
+                }
+                if (key != null) {
+                    writer.add(key, block.value(i));
+                }
+            }
+        }
+        for (; change != null; change = changes.hasNext() ? changes.next() : null) {
+            if (change.getValue() != REMOVED) {
+                writer.add(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /**
+     * A block read from the file. Its keys are decoded up front, its values only when first needed.
+     */
+    static class Block {
+        final String[] keys;
+        private final ByteBuffer compressedValues;
+        private final int valuesLength;
+        private String[] values;
+
+        Block(ByteBuffer buf) {
+            int count = buf.getInt();
+            keys = new String[count];
+            byte[] key = new byte[64];
+            int keyLength = 0;
+            for (int i = 0; i < count; ++i) {
+                int shared = readVarInt(buf);
+                int suffix = readVarInt(buf);
+                keyLength = shared + suffix;
+                if (key.length < keyLength) {
+                    key = Arrays.copyOf(key, Math.max(keyLength, 2 * key.length));
+                }
+                buf.get(key, shared, suffix);
+                keys[i] = new String(key, 0, keyLength, StandardCharsets.UTF_8);
+            }
+            valuesLength = buf.getInt();
+            compressedValues = buf.slice();
+        }
+
+        int indexOf(String key) {
+            return Arrays.binarySearch(keys, key);
+        }
+
+        String value(int i) {
+            if (values == null) {
+                values = inflateValues();
+            }
+            return values[i];
+        }
+
+        private String[] inflateValues() {
+            byte[] raw = new byte[valuesLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressedValues.duplicate());
+                int n = 0;
+                while (n < raw.length && !inflater.finished()) {
+                    n += inflater.inflate(raw, n, raw.length - n);
+                    if (inflater.needsInput()) {
+                        break;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new UncheckedIOException(new IOException("Corrupt dictionary block", e));
+            } finally {
+                inflater.end();
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(raw);
+            String[] values = new String[keys.length];
+            for (int i = 0; i < values.length; ++i) {
+                int length = readVarInt(buf);
+                values[i] = new String(raw, buf.position(), length, StandardCharsets.UTF_8);
+                buf.position(buf.position() + length);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Writes a dictionary file from entries given in key order.
+     */
+    static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final int blockEntries;
+        private long position;
+        private int count;
+
+        private final List<byte[]> keys = new ArrayList<>();
+        private final ByteArrayOutputStream values = new ByteArrayOutputStream();
+
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private int blocks;
+
+        final BloomFilter bloom;
+        final long bloomStamp = new Random().nextLong();
+
+        /**
+         * @param expectedEntries roughly how many entries will be added, to size the Bloom filter
+         */
+        Writer(File file, int blockEntries, int expectedEntries) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            this.blockEntries = blockEntries;
+            this.bloom = new BloomFilter(expectedEntries, BloomFilter.DEFAULT_FPP);
+            out.writeInt(MAGIC);
+            position = 4;
+        }
+
+        void add(String key, String value) throws IOException {
+            bloom.add(key);
+            keys.add(key.getBytes(StandardCharsets.UTF_8));
+            byte[] v = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(values, v.length);
+            values.write(v);
+            ++count;
+            if (keys.size() == blockEntries) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (keys.isEmpty()) {
+                return;
+            }
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            DataOutputStream blockOut = new DataOutputStream(block);
+            blockOut.writeInt(keys.size());
+            byte[] previous = new byte[0];
+            for (byte[] key : keys) {
+                int shared = 0;
+                int max = Math.min(previous.length, key.length);
+                while (shared < max && previous[shared] == key[shared]) {
+                    ++shared;
+                }
+                writeVarInt(block, shared);
+                writeVarInt(block, key.length - shared);
+                block.write(key, shared, key.length - shared);
+                previous = key;
+            }
+
+            byte[] raw = values.toByteArray();
+            blockOut.writeInt(raw.length);
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                byte[] buf = new byte[4096];
+                while (!deflater.finished()) {
+                    block.write(buf, 0, deflater.deflate(buf));
+                }
+            } finally {
+                deflater.end();
+            }
+
+            byte[] firstKey = keys.get(0);
+            indexOut.writeInt(firstKey.length);
+            indexOut.write(firstKey);
+            indexOut.writeLong(position);
+            indexOut.writeInt(block.size());
+            ++blocks;
+
+            block.writeTo(out);
+            position += block.size();
+            keys.clear();
+            values.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                long indexOffset = position;
+                out.writeInt(blocks);
+                index.writeTo(out);
+                out.writeLong(indexOffset);
+                out.writeInt(count);
+                out.writeLong(bloomStamp);
+                out.writeInt(MAGIC);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
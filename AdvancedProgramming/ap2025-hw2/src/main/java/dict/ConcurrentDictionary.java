@@ -0,0 +1,175 @@
+package dict;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implements a thread-safe persistent dictionary that is held entirely in memory.
+ * It uses the same file format as {@link InMemoryDictionary}.
+ * <p>
+ * The dictionary is a {@link ConcurrentSkipListMap}, so reads and writes from
+ * different threads run in parallel. {@link #close()} may be called while other
+ * threads keep using the dictionary: it briefly stops writers to copy the
+ * entries (readers are never blocked), then writes the copy to the file.
+ * The file therefore holds exactly the writes that completed before the flush
+ * started.
+ * <p>
+ * Flushes can be made crash-safe, as with {@link InMemoryDictionary#setDurableFlush(boolean)}.
+ */
+public class ConcurrentDictionary implements PersistentDictionary {
+    private final File dictFile;
+    private final ConcurrentSkipListMap<String, String> map = new ConcurrentSkipListMap<>();
+
+    // Writers share the read lock; close() takes the write lock to get a consistent snapshot
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    private volatile boolean durableFlush;
+
+    public ConcurrentDictionary(File dictFile) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        this.dictFile = dictFile;
+    }
+
+    /**
+     * Set whether {@link #close()} writes the dictionary to a temporary file,
+     * forces it to disk and atomically renames it over the old file, so that a
+     * crash can't damage the dictionary file.
+     *
+     * @param durableFlush true for crash-safe flushes; false (the default) just writes the file.
+     */
+    public void setDurableFlush(boolean durableFlush) {
+        this.durableFlush = durableFlush;
+    }
+
+    @Override
+    public void open() throws IOException {
+        snapshotLock.writeLock().lock();
+        try {
+            map.clear();
+            DictionaryFiles.discardPartialWrite(dictFile);
+            if (!dictFile.exists()) {
+                return; // No file to load
+            }
+
+            try (BufferedReader reader = new BufferedReader(new FileReader(dictFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(":", 2); // Split at the first colon
+                    String key = parts[0];
+                    String value = parts.length > 1 ? parts[1] : ""; // Handle empty value
+                    map.put(key, value);
+                }
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // Synchronized so a newer snapshot is never overwritten by an older one
+    @Override
+    public synchronized void close() throws IOException {
+        List<Map.Entry<String, String>> entries;
+        snapshotLock.writeLock().lock();
+        try {
+            // The skip list's entries are immutable snapshots themselves
+            entries = new ArrayList<>(map.entrySet());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+
+        try {
+            if (durableFlush) {
+                DictionaryFiles.writeAtomically(dictFile, entries);
+            } else {
+                DictionaryFiles.writeEntries(dictFile, entries, false);
+            }
+        } catch (IOException e) {
+            throw new IOException("Failed to write to the dictionary file: " + dictFile.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        snapshotLock.readLock().lock();
+        try {
+            return map.put(key, value);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map. A flush
+     * that starts during the copy waits for it to finish, so the file holds
+     * either none or all of the batch.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> batch) {
+        snapshotLock.readLock().lock();
+        try {
+            map.putAll(batch);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     * Unlike most methods of this class, this takes time linear in the size of
+     * the dictionary, and may be inaccurate while other threads modify it.
+     *
+     * @return the number of key-value mappings in this map.
+     */
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public String remove(Object key) {
+        snapshotLock.readLock().lock();
+        try {
+            return map.remove(key);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a range of the dictionary. Like the iterators of
+     * {@link ConcurrentSkipListMap}, it is weakly consistent: it may be used while
+     * other threads modify the dictionary, and may or may not see their changes.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return ScanIterator.over(map, from, to);
+    }
+
+    @Override
+    public void clear() {
+        snapshotLock.readLock().lock();
+        try {
+            map.clear();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+}
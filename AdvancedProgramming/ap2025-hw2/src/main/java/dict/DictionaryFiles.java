@@ -0,0 +1,116 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Writes files in the {@code word:def} format of {@link InMemoryDictionary},
+ * optionally so that a crash never leaves a damaged dictionary behind.
+ * <p>
+ * A crash-safe write goes to a temporary file next to the dictionary, which is
+ * forced to disk and then renamed over the dictionary file. The rename is
+ * atomic, so the dictionary file always holds either the old or the new
+ * contents. A temporary file found when the dictionary is opened is what's left
+ * of an interrupted write, and is discarded.
+ * <p>
+ * Like {@link java.io.FileWriter}, text is encoded with the default charset,
+ * and lines end with the system line separator.
+ */
+final class DictionaryFiles {
+    static final int WRITE_BUFFER = 1 << 20; // In chars
+
+    private DictionaryFiles() {
+    }
+
+    /**
+     * Return the temporary file used for crash-safe writes of a dictionary file.
+     */
+    static File tempFileFor(File dictFile) {
+        return new File(dictFile.getPath() + ".tmp");
+    }
+
+    /**
+     * Delete what's left of an interrupted crash-safe write of a dictionary file, if anything.
+     */
+    static void discardPartialWrite(File dictFile) throws IOException {
+        Files.deleteIfExists(tempFileFor(dictFile).toPath());
+    }
+
+    /**
+     * Replace a dictionary file with new entries, so that a crash leaves either
+     * the old or the new file in place.
+     */
+    static void writeAtomically(File dictFile, Iterable<? extends Map.Entry<String, String>> entries) throws IOException {
+        File tmp = tempFileFor(dictFile);
+        writeEntries(tmp, entries, true);
+        replace(tmp, dictFile);
+    }
+
+    /**
+     * Write entries to a file in a single sequential pass.
+     *
+     * @param force whether to force the file to disk before returning
+     */
+    static void writeEntries(File file, Iterable<? extends Map.Entry<String, String>> entries, boolean force) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        String newLine = System.lineSeparator();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder chunk = new StringBuilder(WRITE_BUFFER + 256);
+            for (Map.Entry<String, String> entry : entries) {
+                chunk.append(entry.getKey()).append(':').append(entry.getValue()).append(newLine);
+                if (chunk.length() >= WRITE_BUFFER) {
+                    write(channel, charset, chunk);
+                }
+            }
+            write(channel, charset, chunk);
+            if (force) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Force a file to disk.
+     */
+    static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Atomically rename a file (already forced to disk) over another, and make the rename durable.
+     */
+    static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // The rename is only durable once the directory is; not every platform can force a directory
+        File dir = target.getAbsoluteFile().getParentFile();
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Nothing more we can do
+        }
+    }
+
+    private static void write(FileChannel channel, Charset charset, StringBuilder chunk) throws IOException {
+        ByteBuffer bytes = charset.encode(CharBuffer.wrap(chunk));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        chunk.setLength(0);
+    }
+}
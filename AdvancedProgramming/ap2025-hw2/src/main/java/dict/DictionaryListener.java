@@ -0,0 +1,38 @@
+package dict;
+
+/**
+ * Receives the metrics of an {@link InstrumentedDictionary}, e.g. to forward
+ * them to a monitoring system. Listeners are called on the thread that
+ * performed the operation, so they should return quickly.
+ */
+public interface DictionaryListener {
+    /**
+     * Called after every timed operation.
+     *
+     * @param operation the operation
+     * @param nanos     how long it took
+     */
+    default void operationCompleted(InstrumentedDictionary.Operation operation, long nanos) {
+    }
+
+    /**
+     * Called after the dictionary is opened.
+     *
+     * @param nanos     how long the open took
+     * @param bytesRead the bytes the dictionary read, or the size of its file if it doesn't count
+     * @param entries   the number of entries loaded
+     */
+    default void opened(long nanos, long bytesRead, int entries) {
+    }
+
+    /**
+     * Called after the dictionary is flushed by {@link PersistentDictionary#close()},
+     * unless the close had nothing to write.
+     *
+     * @param nanos        how long the flush took
+     * @param bytesWritten the bytes written by the flush (see {@link InstrumentedDictionary})
+     * @param entries      the number of entries flushed
+     */
+    default void flushed(long nanos, long bytesWritten, int entries) {
+    }
+}
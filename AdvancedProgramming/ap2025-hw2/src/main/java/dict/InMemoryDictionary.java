@@ -1,53 +1,193 @@
 package dict;
 
 import java.io.*;
-import java.util.Map;
-import java.util.TreeMap;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 /**
  * Implements a persistent dictionary that can be held entirely in memory.
- * When flushed, it writes the entire dictionary back to a file.
+ * When flushed, it writes the dictionary back to a file.
  * <p>
  * The file format has one keyword per line:
- * 
+ *
  * <pre>
  * word:def
  * </pre>
  * <p>
  * Note that an empty definition list is allowed (in which case the entry would
  * have the form:
- * 
+ *
  * <pre>
  * word:
  * </pre>
+ * <p>
+ * The dictionary keeps track of the keys changed since the last {@link #open()}
+ * or {@link #close()}, and closing a dictionary that hasn't changed doesn't touch
+ * the file. Mutating the dictionary through one of its collection views
+ * (e.g. {@link #entrySet()}) can't be tracked per key, so obtaining a view marks
+ * the whole dictionary as changed.
+ * <p>
+ * When constructed with a segment size, the dictionary is stored in segments:
+ * each segment file holds a contiguous range of keys in the format above, and
+ * the dictionary file is a manifest listing the segments and their first keys:
+ *
+ * <pre>
+ * SEGMENTED
+ * segment-file:first-key
+ * </pre>
+ * <p>
+ * A flush then rewrites only the segments containing changed keys (splitting
+ * those that grew past twice the segment size, and dropping those that became
+ * empty), followed by the manifest. Either format can be opened in either mode;
+ * the next flush writes the format of the current mode.
+ * <p>
+ * Large files can be loaded on several threads; see {@link #setLoadParallelism(int)},
+ * and flushes can be made crash-safe; see {@link #setDurableFlush(boolean)}.
  *
  * @author talm
  */
 public class InMemoryDictionary extends TreeMap<String, String> implements PersistentDictionary {
     private static final long serialVersionUID = 1L; // (because we're extending a serializable class)
+    static final String MANIFEST_MARKER = "SEGMENTED";
+    static final int MIN_BULK_PUT = 64; // Smaller batches are simply inserted
+
     private final File dictFile;
+    private final int segmentSize;
+
+    // Keys changed since the last open() or close(); allDirty means every key may have changed.
+    private final TreeSet<String> dirtyKeys = new TreeSet<>();
+    private boolean allDirty;
+
+    // The segments the dictionary was loaded from, if it was stored in segments.
+    private List<Segment> segments = new ArrayList<>();
+
+    private int loadParallelism = 1;
+    private boolean durableFlush;
+    private long lastFlushBytes;
+    private long bytesRead;
 
     public InMemoryDictionary(File dictFile) {
+        this(dictFile, 0);
+    }
+
+    /**
+     * @param dictFile    the dictionary file
+     * @param segmentSize the number of entries per segment, or 0 to store the
+     *                    dictionary in a single file.
+     */
+    public InMemoryDictionary(File dictFile, int segmentSize) {
         if (dictFile == null) {
             throw new IllegalArgumentException("File cannot be null");
         }
+        if (segmentSize < 0) {
+            throw new IllegalArgumentException("Segment size cannot be negative");
+        }
         this.dictFile = dictFile;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Set the number of threads used to parse the dictionary file in {@link #open()}.
+     * With more than one thread, the file is split into ranges that are parsed
+     * concurrently (see {@link ParallelDictionaryLoader}).
+     *
+     * @param loadParallelism number of threads; 1 (the default) loads the file on the calling thread.
+     */
+    public void setLoadParallelism(int loadParallelism) {
+        if (loadParallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.loadParallelism = loadParallelism;
+    }
+
+    /**
+     * Set whether {@link #close()} makes sure that a crash can't damage the
+     * dictionary file. When set, the dictionary (or manifest) is written to a
+     * temporary file, forced to disk and atomically renamed over the old file;
+     * new segments are forced to disk before the manifest that lists them.
+     * {@link #open()} discards the temporary files of interrupted flushes either way.
+     *
+     * @param durableFlush true for crash-safe flushes; false (the default) just writes the file.
+     */
+    public void setDurableFlush(boolean durableFlush) {
+        this.durableFlush = durableFlush;
     }
 
     @Override
     public void open() throws IOException {
-        this.clear(); // Clear the in-memory map
+        super.clear(); // Clear the in-memory map
+        segments = new ArrayList<>();
+        markClean();
+        DictionaryFiles.discardPartialWrite(dictFile);
+        Files.deleteIfExists(manifestTempFile().toPath());
         if (!dictFile.exists()) {
             return; // No file to load
         }
 
+        boolean manifest;
+        bytesRead += dictFile.length();
         try (BufferedReader reader = new BufferedReader(new FileReader(dictFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":", 2); // Split at the first colon
-                String key = parts[0];
-                String value = parts.length > 1 ? parts[1] : ""; // Handle empty value
-                this.put(key, value);
+            manifest = MANIFEST_MARKER.equals(reader.readLine());
+            if (manifest) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(":", 2); // Segment file, then its first key
+                    segments.add(new Segment(parts.length > 1 ? parts[1] : "",
+                            new File(dictFile.getAbsoluteFile().getParentFile(), parts[0])));
+                }
+            }
+        }
+
+        List<File> files = new ArrayList<>();
+        if (manifest) {
+            for (Segment segment : segments) {
+                files.add(segment.file);
+                bytesRead += segment.file.length();
+            }
+        } else {
+            files.add(dictFile);
+        }
+        if (loadParallelism > 1 && !files.isEmpty()) {
+            // The loaded map is sorted, so the tree is built from it in linear time
+            super.putAll(ParallelDictionaryLoader.load(files, loadParallelism));
+        } else {
+            for (File file : files) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        load(line);
+                    }
+                }
+            }
+        }
+
+        if (manifest == (segmentSize == 0)) {
+            allDirty = true; // Convert to the format of our mode on the next flush
+        }
+        discardStraySegments();
+    }
+
+    /**
+     * Delete the segment files of this dictionary that the manifest doesn't list
+     * (all of them, if the file isn't a manifest): those written by a flush that
+     * failed or crashed before it replaced the manifest, or left behind by one that
+     * crashed before deleting the segments it replaced.
+     */
+    private void discardStraySegments() throws IOException {
+        File dir = dictFile.getAbsoluteFile().getParentFile();
+        Pattern segmentName = Pattern.compile(Pattern.quote(dictFile.getName()) + "\\.\\d+\\.seg");
+        Set<String> listed = new HashSet<>();
+        for (Segment segment : segments) {
+            listed.add(segment.file.getName());
+        }
+        File[] stray = dir.listFiles((d, name) -> segmentName.matcher(name).matches() && !listed.contains(name));
+        if (stray != null) {
+            for (File file : stray) {
+                Files.deleteIfExists(file.toPath());
             }
         }
     }
@@ -57,14 +197,402 @@ public class InMemoryDictionary extends TreeMap<String, String> implements Persi
         if (dictFile == null) {
             throw new IOException("Dictionary file is not specified.");
         }
+        lastFlushBytes = 0;
+        if (!allDirty && dirtyKeys.isEmpty()) {
+            return; // Nothing changed since the last flush
+        }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(dictFile))) {
-            for (Map.Entry<String, String> entry : this.entrySet()) {
-                writer.write(entry.getKey() + ":" + entry.getValue());
-                writer.newLine();
+        try {
+            if (segmentSize == 0) {
+                if (durableFlush) {
+                    DictionaryFiles.writeAtomically(dictFile, super.entrySet());
+                } else {
+                    DictionaryFiles.writeEntries(dictFile, super.entrySet(), false);
+                }
+                lastFlushBytes = dictFile.length();
+                for (Segment segment : segments) {
+                    segment.file.delete();
+                }
+                segments = new ArrayList<>();
+            } else {
+                lastFlushBytes = flushSegments();
             }
         } catch (IOException e) {
             throw new IOException("Failed to write to the dictionary file: " + dictFile.getAbsolutePath(), e);
         }
+        markClean();
+    }
+
+    /**
+     * A segment file, holding the keys from its first key up to the first key of the next segment.
+     */
+    static class Segment implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String firstKey;
+        final File file;
+
+        Segment(String firstKey, File file) {
+            this.firstKey = firstKey;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Rewrite the changed segments, then the manifest.
+     *
+     * @return the number of bytes written
+     */
+    private long flushSegments() throws IOException {
+        List<Segment> oldSegments = segments.isEmpty()
+                ? Collections.singletonList(new Segment("", null)) // Everything goes into new segments
+                : segments;
+        List<Segment> newSegments = new ArrayList<>();
+        List<File> obsolete = new ArrayList<>();
+        List<File> written = new ArrayList<>(); // Not listed anywhere until the manifest is replaced
+        File dir = dictFile.getAbsoluteFile().getParentFile();
+        File manifest = manifestTempFile();
+        long bytes = 0;
+
+        try {
+            for (int i = 0; i < oldSegments.size(); ++i) {
+                Segment segment = oldSegments.get(i);
+                String lo = segment.firstKey;
+                String hi = i + 1 < oldSegments.size() ? oldSegments.get(i + 1).firstKey : null;
+                if (!allDirty && (hi == null ? dirtyKeys.tailSet(lo, true) : dirtyKeys.subSet(lo, true, hi, false)).isEmpty()) {
+                    newSegments.add(segment); // Unchanged
+                    continue;
+                }
+
+                if (segment.file != null) {
+                    obsolete.add(segment.file);
+                }
+                NavigableMap<String, String> range = hi == null ? super.tailMap(lo, true) : super.subMap(lo, true, hi, false);
+                int size = range.size();
+                // Split overgrown segments; an empty one is simply dropped
+                int chunks = size > 2 * segmentSize ? (size + segmentSize - 1) / segmentSize : (size > 0 ? 1 : 0);
+                Iterator<Map.Entry<String, String>> entries = range.entrySet().iterator();
+                for (int chunk = 0; chunk < chunks; ++chunk) {
+                    int chunkSize = size / chunks + (chunk < size % chunks ? 1 : 0);
+                    List<Map.Entry<String, String>> chunkEntries = new ArrayList<>(chunkSize);
+                    for (int j = 0; j < chunkSize; ++j) {
+                        chunkEntries.add(entries.next());
+                    }
+                    File file = Files.createTempFile(dir.toPath(), dictFile.getName() + ".", ".seg").toFile();
+                    written.add(file);
+                    DictionaryFiles.writeEntries(file, chunkEntries, durableFlush);
+                    bytes += file.length();
+                    newSegments.add(new Segment(chunk == 0 ? lo : chunkEntries.get(0).getKey(), file));
+                }
+            }
+            if (!newSegments.isEmpty()) {
+                newSegments.get(0).firstKey = ""; // The first segment starts below every key
+            }
+
+            // Replace the manifest, then get rid of the segments it no longer lists
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(manifest))) {
+                writer.write(MANIFEST_MARKER);
+                writer.newLine();
+                for (Segment segment : newSegments) {
+                    writer.write(segment.file.getName() + ":" + segment.firstKey);
+                    writer.newLine();
+                }
+            }
+            bytes += manifest.length();
+            if (durableFlush) {
+                DictionaryFiles.force(manifest);
+                DictionaryFiles.replace(manifest, dictFile);
+            } else {
+                Files.move(manifest.toPath(), dictFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The old manifest is still in place, and lists none of the new segments
+            for (File file : written) {
+                file.delete();
+            }
+            manifest.delete();
+            throw e;
+        }
+        for (File file : obsolete) {
+            file.delete();
+        }
+        segments = newSegments;
+        return bytes;
+    }
+
+    private void load(String line) {
+        String[] parts = line.split(":", 2); // Split at the first colon
+        String key = parts[0];
+        String value = parts.length > 1 ? parts[1] : ""; // Handle empty value
+        super.put(key, value);
+    }
+
+    /**
+     * Returns the size of the file, or of the changed segments and the manifest,
+     * written by the last flush.
+     */
+    @Override
+    public long getLastFlushBytes() {
+        return lastFlushBytes;
+    }
+
+    /**
+     * Returns the size of the files (or manifests and segments) loaded by {@link #open()}.
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    private File manifestTempFile() {
+        return new File(dictFile.getAbsoluteFile().getParentFile(), dictFile.getName() + ".manifest");
+    }
+
+    private void markClean() {
+        dirtyKeys.clear();
+        allDirty = false;
+    }
+
+    private void markDirty(Object key) {
+        if (!allDirty) {
+            dirtyKeys.add((String) key);
+        }
+    }
+
+    private void markAllDirty() {
+        allDirty = true;
+        dirtyKeys.clear();
+    }
+
+    /**
+     * Returns a read-only iterator over a range of the map. Unlike the views of the
+     * map, this doesn't mark the dictionary as changed.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        String lo = from == null ? "" : from; // The empty string is below every other key
+        if (ScanIterator.isEmpty(lo, to)) {
+            return Collections.emptyIterator();
+        }
+        return ScanIterator.readOnly(to == null ? super.tailMap(lo, true) : super.subMap(lo, true, to, false));
+    }
+
+    /*======= Mutators, overridden to track changed keys ======*/
+
+    @Override
+    public String put(String key, String value) {
+        String old = super.put(key, value);
+        markDirty(key);
+        return old;
+    }
+
+    /**
+     * Copies all of the mappings from the specified map to this map.
+     * A batch that is large compared to the dictionary is sorted and merged with
+     * the current entries in a single pass, and the tree is then rebuilt from the
+     * merged run in linear time, instead of inserting the keys one by one.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map) {
+        if (map.size() < MIN_BULK_PUT || map.size() < size() / 8) {
+            super.putAll(map);
+        } else {
+            mergeSorted(Batch.sortedEntries(map));
+        }
+        for (String key : map.keySet()) {
+            markDirty(key);
+        }
+    }
+
+    /**
+     * Replace the entries with their merge with a sorted batch (whose values win).
+     */
+    private void mergeSorted(List<Map.Entry<String, String>> batch) {
+        int capacity = size() + batch.size();
+        String[] keys = new String[capacity];
+        String[] values = new String[capacity];
+        int size = 0;
+        Iterator<Map.Entry<String, String>> current = super.entrySet().iterator();
+        Map.Entry<String, String> entry = current.hasNext() ? current.next() : null;
+        for (Map.Entry<String, String> update : batch) {
+            int cmp;
+            while (entry != null && (cmp = entry.getKey().compareTo(update.getKey())) <= 0) {
+                if (cmp < 0) {
+                    keys[size] = entry.getKey();
+                    values[size++] = entry.getValue();
+                }
+                entry = current.hasNext() ? current.next() : null;
+            }
+            keys[size] = update.getKey();
+            values[size++] = update.getValue();
+        }
+        for (; entry != null; entry = current.hasNext() ? current.next() : null) {
+            keys[size] = entry.getKey();
+            values[size++] = entry.getValue();
+        }
+        super.clear();
+        // The merged run is sorted, so the tree is built from it in linear time
+        super.putAll(new ParallelDictionaryLoader.SortedArrayMap(keys, values, size));
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!super.containsKey(key)) {
+            return null;
+        }
+        markDirty(key);
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        markAllDirty();
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        String old = super.putIfAbsent(key, value);
+        markDirty(key);
+        return old;
+    }
+
+    @Override
+    public String replace(String key, String value) {
+        String old = super.replace(key, value);
+        markDirty(key);
+        return old;
+    }
+
+    @Override
+    public boolean replace(String key, String oldValue, String newValue) {
+        boolean replaced = super.replace(key, oldValue, newValue);
+        markDirty(key);
+        return replaced;
+    }
+
+    @Override
+    public String computeIfAbsent(String key, Function<? super String, ? extends String> mappingFunction) {
+        String value = super.computeIfAbsent(key, mappingFunction);
+        markDirty(key);
+        return value;
+    }
+
+    @Override
+    public String computeIfPresent(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        String value = super.computeIfPresent(key, remappingFunction);
+        markDirty(key);
+        return value;
+    }
+
+    @Override
+    public String compute(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        String value = super.compute(key, remappingFunction);
+        markDirty(key);
+        return value;
+    }
+
+    @Override
+    public String merge(String key, String value, BiFunction<? super String, ? super String, ? extends String> remappingFunction) {
+        String merged = super.merge(key, value, remappingFunction);
+        markDirty(key);
+        return merged;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super String, ? extends String> function) {
+        super.replaceAll(function);
+        markAllDirty();
+    }
+
+    @Override
+    public Map.Entry<String, String> pollFirstEntry() {
+        Map.Entry<String, String> entry = super.pollFirstEntry();
+        if (entry != null) {
+            markDirty(entry.getKey());
+        }
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<String, String> pollLastEntry() {
+        Map.Entry<String, String> entry = super.pollLastEntry();
+        if (entry != null) {
+            markDirty(entry.getKey());
+        }
+        return entry;
+    }
+
+    /*======= Views, which may be used to mutate the map ======*/
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        markAllDirty();
+        return super.entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        markAllDirty();
+        return super.keySet();
+    }
+
+    @Override
+    public NavigableSet<String> navigableKeySet() {
+        markAllDirty();
+        return super.navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<String> descendingKeySet() {
+        markAllDirty();
+        return super.descendingKeySet();
+    }
+
+    @Override
+    public Collection<String> values() {
+        markAllDirty();
+        return super.values();
+    }
+
+    @Override
+    public NavigableMap<String, String> descendingMap() {
+        markAllDirty();
+        return super.descendingMap();
+    }
+
+    @Override
+    public NavigableMap<String, String> subMap(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive) {
+        markAllDirty();
+        return super.subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public NavigableMap<String, String> headMap(String toKey, boolean inclusive) {
+        markAllDirty();
+        return super.headMap(toKey, inclusive);
+    }
+
+    @Override
+    public NavigableMap<String, String> tailMap(String fromKey, boolean inclusive) {
+        markAllDirty();
+        return super.tailMap(fromKey, inclusive);
+    }
+
+    @Override
+    public SortedMap<String, String> subMap(String fromKey, String toKey) {
+        markAllDirty();
+        return super.subMap(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<String, String> headMap(String toKey) {
+        markAllDirty();
+        return super.headMap(toKey);
+    }
+
+    @Override
+    public SortedMap<String, String> tailMap(String fromKey) {
+        markAllDirty();
+        return super.tailMap(fromKey);
     }
 }
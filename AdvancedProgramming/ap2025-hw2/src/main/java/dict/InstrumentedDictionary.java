@@ -0,0 +1,381 @@
+package dict;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent dictionary that measures the operations of another one: the
+ * latency of every operation (in a {@link LatencyHistogram} per operation),
+ * the duration of opens and flushes, the bytes read and written, and the number
+ * of entries. The metrics can be read directly, through JMX (see
+ * {@link #registerMBean(String)}), or pushed to {@link DictionaryListener}s.
+ * <p>
+ * The bytes read are what the dictionary reports through
+ * {@link PersistentDictionary#getBytesRead()}, by opens and lookups alike; for a
+ * dictionary that doesn't keep count, they are the size of the dictionary file at
+ * each {@link #open()} (exact for the dictionaries that load the whole file). The
+ * bytes written by {@link #close()} are what the dictionary reports
+ * through {@link PersistentDictionary#getLastFlushBytes()}; for a dictionary that
+ * doesn't keep count, they are the size of the file if the close changed it (exact
+ * for the dictionaries that rewrite the whole file), and 0 otherwise. Closes that
+ * write nothing are timed, but aren't reported as flushes to the listeners.
+ * <p>
+ * Instrumentation costs two clock reads and an atomic increment per operation.
+ * To avoid even that, create dictionaries through {@link #wrap(PersistentDictionary, File)},
+ * which doesn't wrap them at all unless the {@code dict.metrics} system property is set.
+ * Scans returned by {@link #range(String, String)} are not timed.
+ */
+public class InstrumentedDictionary implements PersistentDictionary, InstrumentedDictionaryMXBean {
+    public static final String ENABLED_PROPERTY = "dict.metrics";
+
+    public enum Operation {
+        OPEN, CLOSE, GET, PUT, CONTAINS_KEY, REMOVE, CLEAR, PUT_ALL, GET_ALL
+    }
+
+    private final PersistentDictionary delegate;
+    private final File dictFile;
+    private final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final List<DictionaryListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong bytesRead = new AtomicLong(); // Only if the delegate doesn't count
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private volatile long readBaseline; // The delegate's count when the metrics were last reset
+    private volatile long lastOpenNanos;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile int entryCount;
+
+    private ObjectName mbeanName;
+
+    /**
+     * @param delegate the dictionary to measure
+     * @param dictFile the delegate's file, whose size is counted as bytes read and written if the delegate doesn't count
+     */
+    public InstrumentedDictionary(PersistentDictionary delegate, File dictFile) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Dictionary cannot be null");
+        }
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        this.delegate = delegate;
+        this.dictFile = dictFile;
+        this.readBaseline = Math.max(delegate.getBytesRead(), 0);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Return an instrumented dictionary if the {@code dict.metrics} system property
+     * is true, and the dictionary itself (with no overhead at all) otherwise.
+     */
+    public static PersistentDictionary wrap(PersistentDictionary delegate, File dictFile) {
+        return Boolean.getBoolean(ENABLED_PROPERTY) ? new InstrumentedDictionary(delegate, dictFile) : delegate;
+    }
+
+    public void addListener(DictionaryListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(DictionaryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Register this dictionary's metrics with the platform MBean server, as
+     * {@code dict:type=PersistentDictionary,name=<name>}.
+     *
+     * @throws JMException if the name is invalid or already registered
+     */
+    public void registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("dict", new Hashtable<>(Map.of(
+                "type", "PersistentDictionary", "name", ObjectName.quote(name))));
+        server.registerMBean(this, objectName);
+        mbeanName = objectName;
+    }
+
+    /**
+     * Remove this dictionary's metrics from the platform MBean server, if they are registered.
+     */
+    public void unregisterMBean() throws JMException {
+        if (mbeanName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            mbeanName = null;
+        }
+    }
+
+    /**
+     * Returns the latencies of an operation.
+     */
+    public LatencyHistogram getLatencies(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    @Override
+    public void open() throws IOException {
+        long readBefore = delegate.getBytesRead();
+        long start = System.nanoTime();
+        delegate.open();
+        long nanos = System.nanoTime() - start;
+        record(Operation.OPEN, nanos);
+
+        long readAfter = delegate.getBytesRead();
+        long bytes;
+        if (readAfter < 0) {
+            bytes = dictFile.length();
+            bytesRead.addAndGet(bytes);
+        } else {
+            bytes = readAfter - Math.max(readBefore, 0);
+        }
+        int entries = delegate.size();
+        lastOpenNanos = nanos;
+        entryCount = entries;
+        for (DictionaryListener listener : listeners) {
+            listener.opened(nanos, bytes, entries);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        int entries = delegate.size(); // Before the close, after which the dictionary may not be accessed
+        List<Object> before = fileState();
+        long start = System.nanoTime();
+        delegate.close();
+        long nanos = System.nanoTime() - start;
+        record(Operation.CLOSE, nanos);
+
+        long bytes = delegate.getLastFlushBytes();
+        if (bytes < 0) {
+            bytes = before.equals(fileState()) ? 0 : dictFile.length();
+        }
+        entryCount = entries;
+        if (bytes == 0) {
+            return; // Nothing was flushed
+        }
+        bytesWritten.addAndGet(bytes);
+        flushCount.incrementAndGet();
+        lastFlushNanos = nanos;
+        if (nanos > maxFlushNanos) {
+            maxFlushNanos = nanos;
+        }
+        for (DictionaryListener listener : listeners) {
+            listener.flushed(nanos, bytes, entries);
+        }
+    }
+
+    /**
+     * Returns what identifies the contents of the dictionary file: its size, time
+     * of modification and file key (an empty list if it doesn't exist).
+     */
+    private List<Object> fileState() throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(dictFile.toPath(), BasicFileAttributes.class);
+            return Arrays.asList(attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public long getLastFlushBytes() {
+        return delegate.getLastFlushBytes();
+    }
+
+    @Override
+    public String get(Object key) {
+        long start = System.nanoTime();
+        String value = delegate.get(key);
+        record(Operation.GET, System.nanoTime() - start);
+        return value;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        long start = System.nanoTime();
+        String old = delegate.put(key, value);
+        record(Operation.PUT, System.nanoTime() - start);
+        return old;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        long start = System.nanoTime();
+        boolean contains = delegate.containsKey(key);
+        record(Operation.CONTAINS_KEY, System.nanoTime() - start);
+        return contains;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public String remove(Object key) {
+        long start = System.nanoTime();
+        String old = delegate.remove(key);
+        record(Operation.REMOVE, System.nanoTime() - start);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        long start = System.nanoTime();
+        delegate.clear();
+        record(Operation.CLEAR, System.nanoTime() - start);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> map) {
+        long start = System.nanoTime();
+        delegate.putAll(map);
+        record(Operation.PUT_ALL, System.nanoTime() - start);
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<? extends String> keys) {
+        long start = System.nanoTime();
+        Map<String, String> found = delegate.getAll(keys);
+        record(Operation.GET_ALL, System.nanoTime() - start);
+        return found;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return delegate.range(from, to);
+    }
+
+    private void record(Operation operation, long nanos) {
+        latencies.get(operation).record(nanos);
+        for (DictionaryListener listener : listeners) {
+            listener.operationCompleted(operation, nanos);
+        }
+    }
+
+    /*======= Metrics, also exposed through JMX ======*/
+
+    @Override
+    public long getGetCount() {
+        return latencies.get(Operation.GET).getCount();
+    }
+
+    @Override
+    public long getPutCount() {
+        return latencies.get(Operation.PUT).getCount();
+    }
+
+    @Override
+    public long getRemoveCount() {
+        return latencies.get(Operation.REMOVE).getCount();
+    }
+
+    @Override
+    public double getGetMeanMicros() {
+        return latencies.get(Operation.GET).getMean() / 1000;
+    }
+
+    @Override
+    public long getGetP50Micros() {
+        return latencies.get(Operation.GET).getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getGetP99Micros() {
+        return latencies.get(Operation.GET).getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getGetMaxMicros() {
+        return latencies.get(Operation.GET).getMax() / 1000;
+    }
+
+    @Override
+    public double getPutMeanMicros() {
+        return latencies.get(Operation.PUT).getMean() / 1000;
+    }
+
+    @Override
+    public long getPutP50Micros() {
+        return latencies.get(Operation.PUT).getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getPutP99Micros() {
+        return latencies.get(Operation.PUT).getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getPutMaxMicros() {
+        return latencies.get(Operation.PUT).getMax() / 1000;
+    }
+
+    @Override
+    public long getLastOpenMillis() {
+        return lastOpenNanos / 1000000;
+    }
+
+    /**
+     * Returns the number of closes that wrote something.
+     */
+    @Override
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    @Override
+    public long getLastFlushMillis() {
+        return lastFlushNanos / 1000000;
+    }
+
+    @Override
+    public long getMaxFlushMillis() {
+        return maxFlushNanos / 1000000;
+    }
+
+    /**
+     * Returns the bytes read since the metrics were last reset, by opens and, for
+     * a dictionary that counts them, by lookups.
+     */
+    @Override
+    public long getBytesRead() {
+        long delegateRead = delegate.getBytesRead();
+        return delegateRead < 0 ? bytesRead.get() : delegateRead - readBaseline;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        bytesRead.set(0);
+        readBaseline = Math.max(delegate.getBytesRead(), 0);
+        bytesWritten.set(0);
+        flushCount.set(0);
+        lastOpenNanos = 0;
+        lastFlushNanos = 0;
+        maxFlushNanos = 0;
+    }
+}
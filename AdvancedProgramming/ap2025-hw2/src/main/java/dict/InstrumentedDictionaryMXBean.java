@@ -0,0 +1,52 @@
+package dict;
+
+/**
+ * The JMX view of an {@link InstrumentedDictionary}. Durations are in
+ * microseconds, except for those of {@code open()} and flushes, which are in
+ * milliseconds.
+ */
+public interface InstrumentedDictionaryMXBean {
+    long getGetCount();
+
+    long getPutCount();
+
+    long getRemoveCount();
+
+    double getGetMeanMicros();
+
+    long getGetP50Micros();
+
+    long getGetP99Micros();
+
+    long getGetMaxMicros();
+
+    double getPutMeanMicros();
+
+    long getPutP50Micros();
+
+    long getPutP99Micros();
+
+    long getPutMaxMicros();
+
+    long getLastOpenMillis();
+
+    long getFlushCount();
+
+    long getLastFlushMillis();
+
+    long getMaxFlushMillis();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    /**
+     * @return the number of entries as of the last open or flush
+     */
+    int getEntryCount();
+
+    /**
+     * Forget all the metrics collected so far.
+     */
+    void reset();
+}
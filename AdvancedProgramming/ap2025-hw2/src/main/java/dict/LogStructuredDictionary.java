@@ -0,0 +1,439 @@
+package dict;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Implements a persistent dictionary whose file is an append-only log of
+ * changes. The dictionary itself is held in memory; when flushed, only the
+ * records for the changes made since the last {@link #open()} are appended to
+ * the log, so the cost of a flush depends on the number of changes rather than
+ * on the size of the dictionary.
+ * <p>
+ * The log is a sequence of binary records:
+ *
+ * <pre>
+ * PUT    key value
+ * REMOVE key
+ * CLEAR
+ * </pre>
+ * <p>
+ * where each record starts with its opcode byte and each string is stored as a
+ * 4-byte length followed by its UTF-8 bytes. {@link #open()} replays the log
+ * from the beginning.
+ * <p>
+ * Records that were overwritten or removed are dead. Once there are at least
+ * {@code compactionThreshold} dead records, and they outnumber the live
+ * entries, {@link #close()} schedules a background compaction that rewrites
+ * the log with one PUT record per live entry.
+ */
+public class LogStructuredDictionary implements PersistentDictionary {
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1 << 16;
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte CLEAR = 3;
+
+    // Serializes appends and the final swap of a compacted log, per log file
+    private static final Map<String, LogFile> FILE_LOCKS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "dict-log-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File dictFile;
+    private final int compactionThreshold;
+    private final TreeMap<String, String> map = new TreeMap<>();
+
+    // Records added since the last open() or close()
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long pendingRecords;
+
+    // Number of records in the log on disk
+    private long logRecords;
+
+    // The log as it was right after the last flush
+    private LogVersion flushed;
+    private long lastFlushBytes;
+    private long bytesRead;
+
+    public LogStructuredDictionary(File dictFile) {
+        this(dictFile, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public LogStructuredDictionary(File dictFile, int compactionThreshold) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        if (compactionThreshold < 1) {
+            throw new IllegalArgumentException("Compaction threshold must be positive");
+        }
+        this.dictFile = dictFile;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    @Override
+    public void open() throws IOException {
+        map.clear();
+        resetPending();
+        logRecords = 0;
+
+        LogFile log = lockFor(dictFile);
+        synchronized (log) {
+            if (!dictFile.exists()) {
+                return; // No log to replay
+            }
+            Replay replay;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dictFile)))) {
+                replay = replay(in, map);
+            }
+            bytesRead += dictFile.length();
+            if (replay.length < dictFile.length()) {
+                // Drop a torn record left by an interrupted flush, so we can append after it
+                try (RandomAccessFile file = new RandomAccessFile(dictFile, "rw")) {
+                    file.setLength(replay.length);
+                }
+                ++log.generation;
+            }
+            logRecords = replay.records;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lastFlushBytes = 0;
+        if (pendingRecords == 0) {
+            return; // Nothing changed since the last flush
+        }
+
+        synchronized (lockFor(dictFile)) {
+            try (OutputStream out = new FileOutputStream(dictFile, true)) {
+                pending.writeTo(out);
+            } catch (IOException e) {
+                throw new IOException("Failed to append to the dictionary log: " + dictFile.getAbsolutePath(), e);
+            }
+            flushed = version(dictFile);
+        }
+        lastFlushBytes = pending.size();
+        logRecords += pendingRecords;
+        resetPending();
+
+        long deadRecords = logRecords - map.size();
+        if (deadRecords >= compactionThreshold && deadRecords > map.size()) {
+            final LogVersion compacted = flushed;
+            COMPACTOR.execute(() -> compact(dictFile, compacted));
+            logRecords = map.size();
+        }
+    }
+
+    /**
+     * Returns the size of the records appended by the last flush.
+     */
+    @Override
+    public long getLastFlushBytes() {
+        return lastFlushBytes;
+    }
+
+    /**
+     * Returns the size of the logs replayed by {@link #open()}; lookups read nothing.
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public String get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        // Checked before anything is logged: a record cut short would end the log when it is replayed
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        record(PUT, key, value);
+        return map.put(key, value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (!map.containsKey(key)) {
+            return null; // Nothing to log
+        }
+        String old = map.remove(key);
+        record(REMOVE, (String) key, null);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        // Everything logged so far (including pending records) is now dead
+        resetPending();
+        record(CLEAR, null, null);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        return ScanIterator.over(map, from, to);
+    }
+
+    private void record(byte op, String key, String value) {
+        try {
+            writeRecord(pendingOut, op, key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Can't happen with an in-memory stream
+        }
+        ++pendingRecords;
+    }
+
+    private void resetPending() {
+        pending = new ByteArrayOutputStream();
+        pendingOut = new DataOutputStream(pending);
+        pendingRecords = 0;
+    }
+
+    /**
+     * Wait for all the compactions scheduled so far to complete.
+     */
+    static void awaitCompactions() throws InterruptedException {
+        try {
+            COMPACTOR.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The length of the log right after the last flush, before any compaction
+     * it scheduled; 0 if nothing has been flushed.
+     */
+    long flushedLength() {
+        return flushed == null ? 0 : flushed.length;
+    }
+
+    private static LogFile lockFor(File file) {
+        return FILE_LOCKS.computeIfAbsent(file.getAbsolutePath(), path -> new LogFile());
+    }
+
+    /**
+     * The lock of a log file, with a count of the compacted logs swapped in for it.
+     */
+    private static class LogFile {
+        long generation;
+    }
+
+    /**
+     * Identifies the contents of a log file at some point, so that a compaction
+     * of that prefix of the log can tell whether it is still the same log: it
+     * must have the same generation and file key, and be at least as long.
+     */
+    static class LogVersion {
+        final long length;
+        final long generation;
+        final Object fileKey; // Null if the file system doesn't provide one
+
+        LogVersion(long length, long generation, Object fileKey) {
+            this.length = length;
+            this.generation = generation;
+            this.fileKey = fileKey;
+        }
+    }
+
+    /**
+     * The current version of a log. Must be called holding the log's lock.
+     */
+    static LogVersion version(File dictFile) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(dictFile.toPath(), BasicFileAttributes.class);
+        return new LogVersion(attributes.size(), lockFor(dictFile).generation, attributes.fileKey());
+    }
+
+    static void writeRecord(DataOutputStream out, byte op, String key, String value) throws IOException {
+        out.writeByte(op);
+        if (op == CLEAR) {
+            return;
+        }
+        writeString(out, key);
+        if (op == PUT) {
+            writeString(out, value);
+        }
+    }
+
+    /**
+     * The outcome of replaying a log: how many complete records it holds and
+     * how many bytes they take up.
+     */
+    static class Replay {
+        long records;
+        long length;
+    }
+
+    /**
+     * Replay a log into a map. A torn record at the end of the log (left by an
+     * interrupted flush) is ignored.
+     */
+    static Replay replay(DataInputStream in, Map<String, String> map) throws IOException {
+        Replay replay = new Replay();
+        int op;
+        while ((op = in.read()) != -1) {
+            long recordLength = 1;
+            try {
+                switch (op) {
+                    case PUT:
+                        byte[] key = readBytes(in);
+                        byte[] value = readBytes(in);
+                        map.put(new String(key, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8));
+                        recordLength += 8 + key.length + value.length;
+                        break;
+                    case REMOVE:
+                        byte[] removed = readBytes(in);
+                        map.remove(new String(removed, StandardCharsets.UTF_8));
+                        recordLength += 4 + removed.length;
+                        break;
+                    case CLEAR:
+                        map.clear();
+                        break;
+                    default:
+                        throw new IOException("Corrupt dictionary log: unknown record type " + op);
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            ++replay.records;
+            replay.length += recordLength;
+        }
+        return replay;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt dictionary log: negative string length");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Rewrite the first {@code version.length} bytes of the log as one PUT per
+     * live entry. Records appended while the compaction was running are copied
+     * over to the end of the compacted log before it replaces the original.
+     * <p>
+     * If the log is no longer the one that was measured (another compaction
+     * swapped in a shorter log, or the file was deleted or replaced), its first
+     * {@code version.length} bytes are not the ones compacted, so it is left alone.
+     */
+    static void compact(File dictFile, LogVersion version) {
+        long length = version.length;
+        File compacted = null;
+        try {
+            TreeMap<String, String> live = new TreeMap<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new BoundedInputStream(new FileInputStream(dictFile), length)))) {
+                replay(in, live);
+            }
+
+            compacted = Files.createTempFile(dictFile.getAbsoluteFile().getParentFile().toPath(),
+                    dictFile.getName(), ".compact").toFile();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+                for (Map.Entry<String, String> entry : live.entrySet()) {
+                    writeRecord(out, PUT, entry.getKey(), entry.getValue());
+                }
+            }
+
+            LogFile log = lockFor(dictFile);
+            synchronized (log) {
+                if (!dictFile.exists()) {
+                    return; // The log was deleted under our feet
+                }
+                LogVersion current = version(dictFile);
+                if (current.generation != version.generation || !Objects.equals(current.fileKey, version.fileKey)
+                        || current.length < length) {
+                    return; // The log was compacted or replaced under our feet
+                }
+                try (InputStream in = new FileInputStream(dictFile);
+                     OutputStream out = new FileOutputStream(compacted, true)) {
+                    in.skipNBytes(length);
+                    in.transferTo(out);
+                }
+                Files.move(compacted.toPath(), dictFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                compacted = null;
+                ++log.generation;
+            }
+        } catch (IOException e) {
+            // Compaction is an optimization; the uncompacted log is still valid.
+        } finally {
+            if (compacted != null) {
+                compacted.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads at most a fixed number of bytes from the underlying stream.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                --remaining;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
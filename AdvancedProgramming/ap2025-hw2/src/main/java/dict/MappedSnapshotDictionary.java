@@ -0,0 +1,320 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * A read-only persistent dictionary backed by a memory-mapped snapshot file.
+ * Lookups binary-search the mapped file directly, so opening a snapshot costs
+ * nothing beyond the mapping itself, and processes that map the same snapshot
+ * share its pages through the OS page cache.
+ * <p>
+ * Snapshots are written by {@link #export(Map, File)}. The file format is:
+ *
+ * <pre>
+ * magic count bloom-stamp
+ * offset[0] ... offset[count]
+ * entry[0] ... entry[count-1]
+ * </pre>
+ * <p>
+ * where all numbers are 4-byte big-endian integers (but the 8-byte stamp of
+ * the {@link BloomFilter} written next to the snapshot), offset[i] is the position of
+ * entry i relative to the first entry, and offset[count] is the end of the last
+ * one. Each entry is a key length followed by the UTF-8 bytes of the key and of
+ * the value (which runs up to the next entry). Entries are sorted by key, in the
+ * order of {@link String#compareTo(String)}.
+ * <p>
+ * Lookups of missing keys are usually answered by the Bloom filter, without
+ * touching the mapped pages.
+ * <p>
+ * Since snapshots are read-only, the methods that modify the dictionary throw
+ * {@link UnsupportedOperationException}.
+ */
+public class MappedSnapshotDictionary implements PersistentDictionary {
+    static final int MAGIC = 0x534e4150; // "SNAP"
+    static final int HEADER = 16;
+
+    private final File snapshotFile;
+
+    private ByteBuffer snapshot;
+    private int count;
+    private int entriesStart;
+    private BloomFilter bloom; // null if the snapshot has no (matching) filter
+    private long bytesRead;
+
+    public MappedSnapshotDictionary(File snapshotFile) {
+        if (snapshotFile == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Write a snapshot of a map, which can later be opened by a
+     * {@link MappedSnapshotDictionary}.
+     * <p>
+     * The snapshot is written to a temporary file next to it, which is forced to
+     * disk and then renamed over it, so an existing snapshot is never truncated or
+     * rewritten in place: processes that have it mapped keep reading the old file.
+     *
+     * @param entries  the entries to write
+     * @param snapshot the snapshot file to create (or overwrite)
+     * @throws IOException
+     */
+    public static void export(Map<String, String> entries, File snapshot) throws IOException {
+        SortedMap<String, String> sorted;
+        if (entries instanceof SortedMap && ((SortedMap<String, String>) entries).comparator() == null) {
+            sorted = (SortedMap<String, String>) entries;
+        } else {
+            sorted = new TreeMap<>(entries);
+        }
+
+        // First pass: lay out the entries
+        int count = sorted.size();
+        long length = HEADER + 4L * (count + 1);
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            length += 4 + Utf8.encodedLength(entry.getKey()) + Utf8.encodedLength(entry.getValue());
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot would exceed 2GB: " + snapshot.getAbsolutePath());
+        }
+
+        BloomFilter bloom = new BloomFilter(count, BloomFilter.DEFAULT_FPP);
+        for (String key : sorted.keySet()) {
+            bloom.add(key);
+        }
+        long bloomStamp = new Random().nextLong();
+        bloom.write(BloomFilter.fileFor(snapshot), bloomStamp);
+
+        // Second pass: write them
+        File dir = snapshot.getAbsoluteFile().getParentFile();
+        File tmp = Files.createTempFile(dir.toPath(), snapshot.getName(), ".tmp").toFile();
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            out.writeLong(bloomStamp);
+            int offset = 0;
+            out.writeInt(offset);
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                offset += 4 + Utf8.encodedLength(entry.getKey()) + Utf8.encodedLength(entry.getValue());
+                out.writeInt(offset);
+            }
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(key.length);
+                out.write(key);
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IOException("Failed to write the snapshot file: " + snapshot.getAbsolutePath(), e);
+        }
+        try {
+            DictionaryFiles.replace(tmp, snapshot);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IOException("Failed to replace the snapshot file: " + snapshot.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public void open() throws IOException {
+        snapshot = null;
+        count = 0;
+        bloom = null;
+        if (!snapshotFile.exists()) {
+            return; // An empty dictionary
+        }
+
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath())) {
+            if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a dictionary snapshot: " + snapshotFile.getAbsolutePath());
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a dictionary snapshot: " + snapshotFile.getAbsolutePath());
+            }
+            count = mapped.getInt(4);
+            bytesRead += HEADER;
+            bloom = BloomFilter.read(BloomFilter.fileFor(snapshotFile), mapped.getLong(8));
+            entriesStart = HEADER + 4 * (count + 1);
+            snapshot = mapped;
+        }
+    }
+
+    @Override
+    public void close() {
+        snapshot = null; // The mapping is released once it is garbage collected
+        count = 0;
+        bloom = null;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf((String) key);
+        if (i < 0) {
+            return null;
+        }
+        return value(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        throw new UnsupportedOperationException("Dictionary snapshots are read-only");
+    }
+
+    @Override
+    public String remove(Object key) {
+        throw new UnsupportedOperationException("Dictionary snapshots are read-only");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Dictionary snapshots are read-only");
+    }
+
+    /**
+     * Returns an iterator over a range of the snapshot, which reads the mapped
+     * entries sequentially from the start of the range.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        if (ScanIterator.isEmpty(from, to)) {
+            return Collections.emptyIterator();
+        }
+        int first = from == null ? 0 : lowerBound(from);
+        return new ScanIterator() {
+            private int i = first;
+
+            @Override
+            Map.Entry<String, String> advance() {
+                if (i >= count) {
+                    return null;
+                }
+                int start = entryStart(i);
+                int keyLength = keyLength(start);
+                if (to != null && Utf8.compare(snapshot, start + 4, keyLength, to) >= 0) {
+                    return null;
+                }
+                String key = string(start + 4, keyLength);
+                return new AbstractMap.SimpleImmutableEntry<>(key, value(i++));
+            }
+        };
+    }
+
+    /**
+     * Returns the fraction of lookups of missing keys since the last {@link #open()}
+     * that the Bloom filter failed to answer without searching the snapshot.
+     *
+     * @return the measured false-positive rate, or 0 if no missing key was looked up.
+     */
+    public double getBloomFalsePositiveRate() {
+        return bloom == null ? 0 : bloom.falsePositiveRate();
+    }
+
+    /**
+     * Returns the number of bytes read from the mapping: the header, and the
+     * offsets, keys and values that lookups and scans looked at. (The operating
+     * system pages in whole pages of the file, so it may read more.)
+     */
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    private int entryStart(int i) {
+        bytesRead += 4;
+        return entriesStart + snapshot.getInt(HEADER + 4 * i);
+    }
+
+    /**
+     * Returns the length of the key of the entry that starts at a position, counting it and the key as read.
+     */
+    private int keyLength(int start) {
+        int length = snapshot.getInt(start);
+        bytesRead += 4 + length;
+        return length;
+    }
+
+    private String value(int i) {
+        int start = entryStart(i);
+        int valueStart = start + 4 + snapshot.getInt(start);
+        bytesRead += 4;
+        return string(valueStart, entryStart(i + 1) - valueStart);
+    }
+
+    private String string(int position, int length) {
+        bytesRead += length;
+        byte[] bytes = new byte[length];
+        snapshot.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the index of the first entry whose key is not below a key (count if there is none).
+     */
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = entryStart(mid);
+            if (Utf8.compare(snapshot, start + 4, keyLength(start), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Binary-search the snapshot for a key.
+     *
+     * @return the index of the key's entry, or -1 if it isn't in the snapshot.
+     */
+    private int indexOf(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (bloom != null && !bloom.mightContain(key)) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = entryStart(mid);
+            int cmp = Utf8.compare(snapshot, start + 4, keyLength(start), key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        if (bloom != null) {
+            bloom.recordFalsePositive();
+        }
+        return -1;
+    }
+}
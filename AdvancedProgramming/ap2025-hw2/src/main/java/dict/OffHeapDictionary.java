@@ -0,0 +1,438 @@
+package dict;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Implements a persistent dictionary that is held entirely in memory, but
+ * outside the Java heap. It uses the same file format as {@link InMemoryDictionary}.
+ * <p>
+ * Entries are stored as records in arenas, which are direct {@link ByteBuffer}s
+ * filled one after the other. The first arena is small, and each one after it
+ * twice as large, up to the arena size, so a small dictionary takes little
+ * direct memory (which counts against {@code -XX:MaxDirectMemorySize}). A record is
+ *
+ * <pre>
+ * keyLength valueLength key value
+ * </pre>
+ * <p>
+ * where the lengths are 4-byte integers and the key and value are UTF-8 bytes.
+ * A record is addressed by a long holding its arena number and its offset.
+ * <p>
+ * The index is an array of record addresses sorted by key, searched by
+ * comparing the stored bytes directly (see {@link Utf8}). New keys go to a small
+ * sorted tail index, which is merged into the main index once it fills up, and
+ * removed keys stay in the main index as tombstones until the next merge.
+ * Replacing a value appends a new record; once such dead records take up more
+ * than half of the arenas, the next merge copies the live records to new arenas.
+ * <p>
+ * So the heap only holds about 8 bytes per entry, in a few arrays that the GC
+ * doesn't need to trace, and strings are only created by {@link #get(Object)}
+ * and scans.
+ */
+public class OffHeapDictionary implements PersistentDictionary {
+    public static final int DEFAULT_ARENA_SIZE = 1 << 26;
+    public static final int DEFAULT_TAIL_CAPACITY = 4096;
+    static final int INITIAL_ARENA_SIZE = 1 << 12;
+
+    static final int RECORD_HEADER = 8;
+    static final long TOMBSTONE = Long.MIN_VALUE; // Flags a removed key in the main index
+
+    private final File dictFile;
+    private final int arenaSize;
+    private final int tailCapacity;
+
+    private List<ByteBuffer> arenas = new ArrayList<>();
+    private int nextArenaSize; // Doubles with every arena, up to arenaSize
+    private long usedBytes;
+    private long deadBytes; // Bytes of records that are no longer indexed
+
+    private long[] index = new long[16];
+    private int indexCount;
+    private int tombstones;
+    private long[] tail;
+    private int tailCount;
+    private int size;
+
+    public OffHeapDictionary(File dictFile) {
+        this(dictFile, DEFAULT_ARENA_SIZE, DEFAULT_TAIL_CAPACITY);
+    }
+
+    /**
+     * @param dictFile     the dictionary file
+     * @param arenaSize    the size that arenas grow to (larger records get an arena of their own)
+     * @param tailCapacity the number of new keys collected before they are merged into the main index
+     */
+    public OffHeapDictionary(File dictFile, int arenaSize, int tailCapacity) {
+        if (dictFile == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        if (arenaSize < RECORD_HEADER) {
+            throw new IllegalArgumentException("Arenas must hold at least " + RECORD_HEADER + " bytes");
+        }
+        if (tailCapacity < 1) {
+            throw new IllegalArgumentException("Tail must hold at least one key");
+        }
+        this.dictFile = dictFile;
+        this.arenaSize = arenaSize;
+        this.tailCapacity = tailCapacity;
+        this.tail = new long[tailCapacity];
+        this.nextArenaSize = Math.min(arenaSize, INITIAL_ARENA_SIZE);
+    }
+
+    @Override
+    public void open() throws IOException {
+        clear();
+        if (!dictFile.exists()) {
+            return; // No file to load
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(dictFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(":", 2); // Split at the first colon
+                String key = parts[0];
+                String value = parts.length > 1 ? parts[1] : ""; // Handle empty value
+                put(key, value); // Keys in a file we wrote come in order, and are simply appended
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            DictionaryFiles.writeEntries(dictFile, () -> range(null, null), false);
+        } catch (IOException e) {
+            throw new IOException("Failed to write to the dictionary file: " + dictFile.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        long address = find((String) Objects.requireNonNull(key));
+        return address < 0 ? null : value(address);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find((String) Objects.requireNonNull(key)) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int i = search(index, indexCount, key);
+        if (i >= 0) {
+            long old = index[i];
+            index[i] = store(key, value);
+            if (old < 0) {
+                --tombstones; // A removed key is back
+                ++size;
+                return null;
+            }
+            return replaced(old);
+        }
+        if (-i - 1 == indexCount && tailCount == 0) {
+            // Above every key, as when loading a sorted file: append to the main index
+            if (indexCount == index.length) {
+                index = Arrays.copyOf(index, 2 * index.length);
+            }
+            index[indexCount++] = store(key, value);
+            ++size;
+            return null;
+        }
+
+        int j = search(tail, tailCount, key);
+        if (j >= 0) {
+            long old = tail[j];
+            tail[j] = store(key, value);
+            return replaced(old);
+        }
+        j = -j - 1;
+        System.arraycopy(tail, j, tail, j + 1, tailCount - j);
+        tail[j] = store(key, value);
+        ++tailCount;
+        ++size;
+        if (tailCount == tailCapacity) {
+            merge();
+        }
+        return null;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String k = (String) Objects.requireNonNull(key);
+        int i = search(index, indexCount, k);
+        if (i >= 0) {
+            long address = index[i];
+            if (address < 0) {
+                return null; // Already removed
+            }
+            String old = value(address);
+            index[i] = address | TOMBSTONE;
+            deadBytes += recordSize(address);
+            ++tombstones;
+            --size;
+            if (tombstones > tailCapacity && tombstones > indexCount / 4) {
+                merge();
+            }
+            return old;
+        }
+
+        int j = search(tail, tailCount, k); // New keys are only in the tail
+        if (j < 0) {
+            return null;
+        }
+        long address = tail[j];
+        String old = value(address);
+        System.arraycopy(tail, j + 1, tail, j, tailCount - j - 1);
+        --tailCount;
+        deadBytes += recordSize(address);
+        --size;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        arenas = new ArrayList<>(); // The direct buffers are freed once they are garbage collected
+        nextArenaSize = Math.min(arenaSize, INITIAL_ARENA_SIZE);
+        usedBytes = 0;
+        deadBytes = 0;
+        index = new long[16];
+        indexCount = 0;
+        tombstones = 0;
+        tailCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns an iterator over a range of the dictionary, which merges the main
+     * and tail indexes as it goes.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        if (ScanIterator.isEmpty(from, to)) {
+            return Collections.emptyIterator();
+        }
+        int indexStart = from == null ? 0 : lowerBound(index, indexCount, from);
+        int tailStart = from == null ? 0 : lowerBound(tail, tailCount, from);
+        return new ScanIterator() {
+            private int i = indexStart;
+            private int j = tailStart;
+
+            @Override
+            Map.Entry<String, String> advance() {
+                while (i < indexCount && index[i] < 0) {
+                    ++i; // Skip tombstones
+                }
+                long address;
+                if (i == indexCount) {
+                    if (j == tailCount) {
+                        return null;
+                    }
+                    address = tail[j++];
+                } else if (j == tailCount || compare(index[i], tail[j]) < 0) {
+                    address = index[i++];
+                } else {
+                    address = tail[j++];
+                }
+                if (to != null && compareKey(address, to) >= 0) {
+                    return null;
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(key(address), value(address));
+            }
+        };
+    }
+
+    /**
+     * Account for a record whose value was replaced, compacting the arenas if they are mostly dead records.
+     *
+     * @return the replaced value
+     */
+    private String replaced(long old) {
+        String value = value(old);
+        deadBytes += recordSize(old);
+        if (deadBytes > arenaSize && deadBytes > usedBytes / 2) {
+            merge();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of bytes allocated outside the heap.
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer arena : arenas) {
+            bytes += arena.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Return the address of a key's record, or -1 if the key is not in the dictionary.
+     */
+    private long find(String key) {
+        int i = search(index, indexCount, key);
+        if (i >= 0) {
+            return index[i] < 0 ? -1 : index[i];
+        }
+        int j = search(tail, tailCount, key);
+        return j >= 0 ? tail[j] : -1;
+    }
+
+    /**
+     * Binary-search sorted addresses for a key (tombstones included).
+     *
+     * @return the position of the key, or (-(insertion point) - 1) if it isn't there.
+     */
+    private int search(long[] addresses, int count, String key) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareKey(addresses[mid] & ~TOMBSTONE, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private int lowerBound(long[] addresses, int count, String key) {
+        int i = search(addresses, count, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Merge the tail into the main index and drop the tombstones, compacting
+     * the arenas if they are mostly dead records.
+     */
+    private void merge() {
+        long[] merged = new long[Math.max(16, indexCount - tombstones + tailCount)];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < indexCount; ++i) {
+            if (index[i] < 0) {
+                continue;
+            }
+            while (j < tailCount && compare(tail[j], index[i]) < 0) {
+                merged[count++] = tail[j++];
+            }
+            merged[count++] = index[i];
+        }
+        while (j < tailCount) {
+            merged[count++] = tail[j++];
+        }
+        index = merged;
+        indexCount = count;
+        tombstones = 0;
+        tailCount = 0;
+
+        if (deadBytes > usedBytes / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Copy the indexed records to new arenas, in key order.
+     */
+    private void compact() {
+        List<ByteBuffer> oldArenas = arenas;
+        arenas = new ArrayList<>();
+        // The live records are known, so start with an arena that holds them all, if it may
+        nextArenaSize = (int) Math.min(arenaSize, Math.max(INITIAL_ARENA_SIZE, usedBytes - deadBytes));
+        usedBytes = 0;
+        deadBytes = 0;
+        for (int i = 0; i < indexCount; ++i) {
+            ByteBuffer record = oldArenas.get(arena(index[i])).duplicate();
+            int offset = offset(index[i]);
+            record.limit(offset + RECORD_HEADER + record.getInt(offset) + record.getInt(offset + 4)).position(offset);
+            index[i] = allocate(record.remaining());
+            arenas.get(arena(index[i])).put(record);
+        }
+    }
+
+    private long store(String key, String value) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value.getBytes(StandardCharsets.UTF_8);
+        long address = allocate(RECORD_HEADER + k.length + v.length);
+        arenas.get(arena(address)).putInt(k.length).putInt(v.length).put(k).put(v);
+        return address;
+    }
+
+    /**
+     * Make room for a record at the end of the current arena (or of a new one).
+     * The arena's position is left at the start of the record.
+     */
+    private long allocate(int bytes) {
+        ByteBuffer arena = arenas.isEmpty() ? null : arenas.get(arenas.size() - 1);
+        if (arena == null || arena.remaining() < bytes) {
+            arena = ByteBuffer.allocateDirect(Math.max(nextArenaSize, bytes));
+            arenas.add(arena);
+            nextArenaSize = (int) Math.min(arenaSize, 2L * nextArenaSize);
+        }
+        usedBytes += bytes;
+        return ((long) (arenas.size() - 1) << 32) | arena.position();
+    }
+
+    private int compareKey(long address, String key) {
+        ByteBuffer arena = arenas.get(arena(address));
+        int offset = offset(address);
+        return Utf8.compare(arena, offset + RECORD_HEADER, arena.getInt(offset), key);
+    }
+
+    private int compare(long a, long b) {
+        ByteBuffer aArena = arenas.get(arena(a));
+        ByteBuffer bArena = arenas.get(arena(b));
+        int aOffset = offset(a);
+        int bOffset = offset(b);
+        return Utf8.compare(aArena, aOffset + RECORD_HEADER, aArena.getInt(aOffset),
+                bArena, bOffset + RECORD_HEADER, bArena.getInt(bOffset));
+    }
+
+    private String key(long address) {
+        ByteBuffer arena = arenas.get(arena(address));
+        int offset = offset(address);
+        return string(arena, offset + RECORD_HEADER, arena.getInt(offset));
+    }
+
+    private String value(long address) {
+        ByteBuffer arena = arenas.get(arena(address));
+        int offset = offset(address);
+        int keyLength = arena.getInt(offset);
+        return string(arena, offset + RECORD_HEADER + keyLength, arena.getInt(offset + 4));
+    }
+
+    private int recordSize(long address) {
+        ByteBuffer arena = arenas.get(arena(address));
+        int offset = offset(address);
+        return RECORD_HEADER + arena.getInt(offset) + arena.getInt(offset + 4);
+    }
+
+    private static String string(ByteBuffer arena, int offset, int length) {
+        byte[] bytes = new byte[length];
+        arena.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int arena(long address) {
+        return (int) ((address & ~TOMBSTONE) >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+}
@@ -0,0 +1,409 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads files in the {@code word:def} format of {@link InMemoryDictionary} on
+ * several threads.
+ * <p>
+ * Each file is split into byte ranges that start right after a newline, and the
+ * ranges are parsed on a {@link ForkJoinPool}. Every range becomes a run sorted
+ * by key, and the runs are merged into one sorted map. As with a sequential
+ * load, when a key appears more than once, the last line wins.
+ * <p>
+ * Like {@link java.io.FileReader}, lines are decoded with the default charset,
+ * which must be ASCII-compatible (so that ':' and line breaks can be found by
+ * scanning the bytes).
+ */
+final class ParallelDictionaryLoader {
+    static final long DEFAULT_MAX_RANGE = 1 << 28;
+    static final long MIN_RANGE = 1 << 20;
+
+    private ParallelDictionaryLoader() {
+    }
+
+    /**
+     * Load files concurrently, with ranges sized to give every thread a few of them.
+     */
+    static SortedMap<String, String> load(List<File> files, int parallelism) throws IOException {
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        long rangeSize = Math.max(MIN_RANGE, Math.min(DEFAULT_MAX_RANGE, total / (4L * parallelism) + 1));
+        return load(files, parallelism, rangeSize);
+    }
+
+    /**
+     * Load files concurrently.
+     *
+     * @param files       the files to load; lines in later files override earlier ones
+     * @param parallelism the number of threads to use
+     * @param rangeSize   the approximate size of the ranges each file is split into
+     * @return a sorted map with the dictionary's entries
+     */
+    static SortedMap<String, String> load(List<File> files, int parallelism, long rangeSize) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        for (File file : files) {
+            split(file, rangeSize, ranges);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<Run>> futures = new ArrayList<>();
+            for (Range range : ranges) {
+                futures.add(pool.submit(range::parse));
+            }
+            List<Run> runs = new ArrayList<>();
+            for (Future<Run> future : futures) {
+                runs.add(future.get());
+            }
+            return merge(runs);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Failed to load dictionary", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading dictionary", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Split a file into ranges of about {@code rangeSize} bytes, each starting right after a newline.
+     */
+    private static void split(File file, long rangeSize, List<Range> ranges) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            long size = channel.size();
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            long start = 0;
+            while (start < size) {
+                long end = Math.min(start + rangeSize, size);
+                // Move the end forward past the next newline
+                search:
+                while (end < size) {
+                    buf.clear();
+                    int n = channel.read(buf, end - 1);
+                    for (int i = 0; i < n; ++i) {
+                        if (buf.get(i) == '\n') {
+                            end += i;
+                            break search;
+                        }
+                    }
+                    end = Math.min(end + n, size);
+                }
+                ranges.add(new Range(file, start, end));
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * A range of bytes in a file, starting at the beginning of a line and ending after a newline (or at EOF).
+     */
+    private static class Range {
+        final File file;
+        final long start;
+        final long end;
+
+        Range(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        Run parse() {
+            Charset charset = Charset.defaultCharset();
+            List<String> keys = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                byte[] line = new byte[256];
+                int pos = 0;
+                int limit = buf.limit();
+                while (pos < limit) {
+                    int lineEnd = pos;
+                    int colon = -1;
+                    byte b;
+                    while (lineEnd < limit && (b = buf.get(lineEnd)) != '\n' && b != '\r') {
+                        if (colon < 0 && b == ':') {
+                            colon = lineEnd - pos;
+                        }
+                        ++lineEnd;
+                    }
+
+                    int length = lineEnd - pos;
+                    if (line.length < length) {
+                        line = new byte[Math.max(length, 2 * line.length)];
+                    }
+                    buf.get(pos, line, 0, length);
+                    if (colon < 0) {
+                        keys.add(new String(line, 0, length, charset));
+                        values.add(""); // Handle empty value
+                    } else {
+                        keys.add(new String(line, 0, colon, charset));
+                        values.add(new String(line, colon + 1, length - colon - 1, charset));
+                    }
+
+                    // Skip the line break ("\n", "\r" or "\r\n")
+                    pos = lineEnd + 1;
+                    if (lineEnd < limit && buf.get(lineEnd) == '\r' && pos < limit && buf.get(pos) == '\n') {
+                        ++pos;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Run(keys.toArray(new String[0]), values.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * A list of entries sorted by key, with no repeated keys.
+     */
+    private static class Run {
+        final String[] keys;
+        final String[] values;
+        final int size;
+
+        /**
+         * Sort the entries, keeping only the last entry for each key.
+         */
+        Run(String[] keys, String[] values) {
+            int n = keys.length;
+            int[] order = new int[n];
+            for (int i = 0; i < n; ++i) {
+                order[i] = i;
+            }
+            sort(order, new int[n], 0, n, keys);
+
+            this.keys = new String[n];
+            this.values = new String[n];
+            int size = 0;
+            for (int i = 0; i < n; ++i) {
+                int j = order[i];
+                if (size > 0 && this.keys[size - 1].equals(keys[j])) {
+                    --size; // The sort is stable, so later lines come later
+                }
+                this.keys[size] = keys[j];
+                this.values[size] = values[j];
+                ++size;
+            }
+            this.size = size;
+        }
+
+        /**
+         * A stable merge sort of the indices in order[from, to), by their keys.
+         */
+        private static void sort(int[] order, int[] tmp, int from, int to, String[] keys) {
+            if (to - from < 2) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            sort(order, tmp, from, mid, keys);
+            sort(order, tmp, mid, to, keys);
+            if (keys[order[mid - 1]].compareTo(keys[order[mid]]) <= 0) {
+                return; // Already in order
+            }
+            System.arraycopy(order, from, tmp, from, to - from);
+            int i = from;
+            int j = mid;
+            for (int k = from; k < to; ++k) {
+                if (j >= to || (i < mid && keys[tmp[i]].compareTo(keys[tmp[j]]) <= 0)) {
+                    order[k] = tmp[i++];
+                } else {
+                    order[k] = tmp[j++];
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge sorted runs. When a key is in several runs, the value from the last one wins.
+     */
+    private static SortedMap<String, String> merge(List<Run> runs) {
+        int total = 0;
+        for (Run run : runs) {
+            total += run.size;
+        }
+        String[] keys = new String[total];
+        String[] values = new String[total];
+
+        int[] positions = new int[runs.size()];
+        // Runs ordered by their next key, then by their index
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int cmp = runs.get(a).keys[positions[a]].compareTo(runs.get(b).keys[positions[b]]);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        for (int r = 0; r < runs.size(); ++r) {
+            if (runs.get(r).size > 0) {
+                heap.add(r);
+            }
+        }
+
+        int size = 0;
+        while (!heap.isEmpty()) {
+            int r = heap.poll();
+            Run run = runs.get(r);
+            String key = run.keys[positions[r]];
+            if (size > 0 && keys[size - 1].equals(key)) {
+                --size; // A later run overrides an earlier one
+            }
+            keys[size] = key;
+            values[size] = run.values[positions[r]];
+            ++size;
+            if (++positions[r] < run.size) {
+                heap.add(r);
+            }
+        }
+        return new SortedArrayMap(keys, values, size);
+    }
+
+    /**
+     * A read-only sorted map over parallel arrays of keys and values, or over a
+     * range of them. This is enough of a {@link SortedMap} to let
+     * {@link TreeMap#putAll(Map)} build a tree from it in linear time; lookups
+     * and views binary search the keys.
+     */
+    static class SortedArrayMap extends AbstractMap<String, String> implements SortedMap<String, String> {
+        private final String[] keys;
+        private final String[] values;
+        private final int from; // Index of the first entry
+        private final int to; // Index after the last entry
+
+        SortedArrayMap(String[] keys, String[] values, int size) {
+            this(keys, values, 0, size);
+        }
+
+        private SortedArrayMap(String[] keys, String[] values, int from, int to) {
+            this.keys = keys;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int i = from;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < to;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (i >= to) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, String> entry = new SimpleImmutableEntry<>(keys[i], values[i]);
+                            ++i;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return to - from;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public String get(Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : values[i];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null; // Natural ordering
+        }
+
+        @Override
+        public String firstKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return keys[from];
+        }
+
+        @Override
+        public String lastKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return keys[to - 1];
+        }
+
+        @Override
+        public SortedMap<String, String> subMap(String fromKey, String toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new SortedArrayMap(keys, values, lowerBound(fromKey), lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<String, String> headMap(String toKey) {
+            return new SortedArrayMap(keys, values, from, lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<String, String> tailMap(String fromKey) {
+            return new SortedArrayMap(keys, values, lowerBound(fromKey), to);
+        }
+
+        /**
+         * Returns the index of a key, or -1 if it isn't in the map.
+         */
+        private int indexOf(Object key) {
+            if (!(key instanceof String)) {
+                if (key == null) {
+                    throw new NullPointerException();
+                }
+                return -1;
+            }
+            int i = Arrays.binarySearch(keys, from, to, (String) key);
+            return i < 0 ? -1 : i;
+        }
+
+        /**
+         * Returns the index of the first key that is at least a given key, or
+         * {@code to} if there is none. (So the bounds of the views of a view are
+         * clamped to its range, rather than rejected as {@link TreeMap} does.)
+         */
+        private int lowerBound(String key) {
+            int i = Arrays.binarySearch(keys, from, to, key);
+            return i < 0 ? -i - 1 : i;
+        }
+    }
+}
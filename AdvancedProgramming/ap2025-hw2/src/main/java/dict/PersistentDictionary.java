@@ -1,6 +1,7 @@
 package dict;
 
 import java.io.IOException;
+import java.util.*;
 
 /**
  * Stores a dictionary: a map of words to definitions.
@@ -30,6 +31,28 @@ public interface PersistentDictionary {
      */
     void close() throws IOException;
 
+    /**
+     * Returns the number of bytes that the last {@link #close()} wrote to the files
+     * holding the entries (not counting side files such as Bloom filters), or -1 if
+     * the dictionary doesn't keep count. A close with nothing to flush writes 0 bytes.
+     *
+     * @return the bytes written by the last flush, or -1 if unknown
+     */
+    default long getLastFlushBytes() {
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes this dictionary has read from the files holding
+     * the entries (not counting side files such as Bloom filters) since it was
+     * created, by {@link #open()} and by lookups alike, or -1 if it doesn't keep count.
+     *
+     * @return the bytes read so far, or -1 if unknown
+     */
+    default long getBytesRead() {
+        return -1;
+    }
+
 
     /*======= Methods to read/write definitions (a subset of Map<String,String>)  ======*/
 
@@ -102,4 +125,84 @@ public interface PersistentDictionary {
      * Removes all the mappings from this map.
      */
     void clear();
+
+
+    /*======= Batch operations ======*/
+
+    /**
+     * Copies all of the mappings from the specified map to this map.
+     * The effect is the same as calling {@link #put(String, String)} for each mapping,
+     * but implementations may apply the whole batch at once, in key order.
+     *
+     * @param map mappings to be stored in this map
+     * @throws NullPointerException     if the specified map is null, or contains null keys or values
+     * @throws IllegalArgumentException if some property of a key or value prevents it from being stored in this map
+     */
+    default void putAll(Map<? extends String, ? extends String> map) {
+        for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the values to which the specified keys are mapped.
+     * The effect is the same as calling {@link #get(Object)} for each key,
+     * but implementations may look up the whole batch at once, in key order.
+     *
+     * @param keys the keys whose associated values are to be returned
+     * @return a map from each of the keys this map contains to its value; keys it doesn't contain are left out
+     * @throws NullPointerException if the specified collection is null, or contains a null key
+     */
+    default Map<String, String> getAll(Collection<? extends String> keys) {
+        Map<String, String> found = new HashMap<>();
+        for (String key : keys) {
+            String value = get(key);
+            if (value != null) {
+                found.put(key, value);
+            }
+        }
+        return found;
+    }
+
+    /*======= Ordered scans ======*/
+
+    /**
+     * Returns an iterator over the mappings whose keys lie in a range, in ascending key order.
+     * The mappings are read lazily, as the iterator advances, so a scan that stops early
+     * reads only what it used. The dictionary must not be modified while the iterator
+     * is in use, and the iterator does not support removal.
+     * <p>
+     * The default implementation throws {@link UnsupportedOperationException}, as this
+     * interface has no way to enumerate the mappings; dictionaries that keep their keys
+     * in order override it (as do all the dictionaries in this package).
+     *
+     * @param from the lowest key of the range (inclusive), or null to start at the first key
+     * @param to   the key at which the range ends (exclusive), or null to continue to the last key
+     * @return an iterator over the mappings in the range; empty if {@code from} is not below {@code to}
+     * @throws UnsupportedOperationException if the dictionary doesn't support ordered scans
+     */
+    default Iterator<Map.Entry<String, String>> range(String from, String to) {
+        throw new UnsupportedOperationException("Ordered scans are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Returns an iterator over the mappings whose keys start with a prefix, in ascending key order.
+     * This is a {@link #range(String, String)} over the keys from the prefix up to
+     * (and excluding) the first string above every key with the prefix.
+     *
+     * @param prefix the prefix of the keys to return; the empty prefix returns all the mappings
+     * @return an iterator over the mappings with the prefix
+     * @throws NullPointerException          if the specified prefix is null
+     * @throws UnsupportedOperationException if the dictionary doesn't support ordered scans
+     */
+    default Iterator<Map.Entry<String, String>> prefixScan(String prefix) {
+        Objects.requireNonNull(prefix);
+        // Increment the last char that can be incremented; a prefix of only MAX_VALUE chars has no upper bound
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            --last;
+        }
+        String end = last < 0 ? null : prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+        return range(prefix, end);
+    }
 }
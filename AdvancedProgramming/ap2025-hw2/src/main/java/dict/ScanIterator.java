@@ -0,0 +1,70 @@
+package dict;
+
+import java.util.*;
+
+/**
+ * An iterator over the results of {@link PersistentDictionary#range(String, String)},
+ * which computes each mapping only when it is asked for.
+ */
+abstract class ScanIterator implements Iterator<Map.Entry<String, String>> {
+    private Map.Entry<String, String> next;
+    private boolean done;
+
+    /**
+     * Compute the next mapping.
+     *
+     * @return the next mapping, or null if there are no more.
+     */
+    abstract Map.Entry<String, String> advance();
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            next = advance();
+            done = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, String> entry = next;
+        next = null;
+        return entry;
+    }
+
+    /**
+     * Return whether a range is empty because its start is not below its end.
+     */
+    static boolean isEmpty(String from, String to) {
+        return from != null && to != null && from.compareTo(to) >= 0;
+    }
+
+    /**
+     * Return whether a key lies past the end of a range.
+     */
+    static boolean isPast(String key, String to) {
+        return to != null && key.compareTo(to) >= 0;
+    }
+
+    /**
+     * Return a read-only iterator over a range of a sorted map.
+     */
+    static Iterator<Map.Entry<String, String>> over(NavigableMap<String, String> map, String from, String to) {
+        String lo = from == null ? "" : from; // The empty string is below every other key
+        if (isEmpty(lo, to)) {
+            return Collections.emptyIterator();
+        }
+        return readOnly(to == null ? map.tailMap(lo, true) : map.subMap(lo, true, to, false));
+    }
+
+    /**
+     * Return an iterator over a map that can't modify it.
+     */
+    static Iterator<Map.Entry<String, String>> readOnly(Map<String, String> map) {
+        return Collections.unmodifiableMap(map).entrySet().iterator();
+    }
+}
@@ -0,0 +1,139 @@
+package dict;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for working with UTF-8 strings stored in byte buffers without
+ * decoding them into {@link String}s.
+ */
+final class Utf8 {
+    private Utf8() {
+    }
+
+    /**
+     * Return the number of bytes in the UTF-8 encoding of a string, as produced by
+     * {@link String#getBytes(java.nio.charset.Charset)} (which replaces unpaired
+     * surrogates with '?').
+     */
+    static int encodedLength(String str) {
+        int bytes = 0;
+        for (int i = 0; i < str.length(); ++i) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                bytes += 4;
+                ++i;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Compare the UTF-8 string stored in {@code buf} at [offset, offset+length)
+     * to {@code str}, in the same order as {@link String#compareTo(String)}.
+     * The stored bytes are decoded on the fly, so nothing is allocated.
+     *
+     * @return a negative number, zero or a positive number if the stored string
+     *         is less than, equal to or greater than {@code str}.
+     */
+    static int compare(ByteBuffer buf, int offset, int length, String str) {
+        int end = offset + length;
+        int pos = offset;
+        int i = 0;
+        char pendingLow = 0; // second half of a surrogate pair still to be compared
+
+        while (pendingLow != 0 || pos < end) {
+            char c;
+            if (pendingLow != 0) {
+                c = pendingLow;
+                pendingLow = 0;
+            } else {
+                int b = buf.get(pos++) & 0xFF;
+                int codePoint;
+                if (b < 0x80) {
+                    codePoint = b;
+                } else if (b < 0xE0) {
+                    codePoint = ((b & 0x1F) << 6) | (buf.get(pos++) & 0x3F);
+                } else if (b < 0xF0) {
+                    codePoint = ((b & 0x0F) << 12) | ((buf.get(pos++) & 0x3F) << 6) | (buf.get(pos++) & 0x3F);
+                } else {
+                    codePoint = ((b & 0x07) << 18) | ((buf.get(pos++) & 0x3F) << 12)
+                            | ((buf.get(pos++) & 0x3F) << 6) | (buf.get(pos++) & 0x3F);
+                }
+                if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    c = Character.highSurrogate(codePoint);
+                    pendingLow = Character.lowSurrogate(codePoint);
+                } else {
+                    c = (char) codePoint;
+                }
+            }
+
+            if (i == str.length()) {
+                return 1; // str is a proper prefix of the stored string
+            }
+            char other = str.charAt(i++);
+            if (c != other) {
+                return c - other;
+            }
+        }
+        return i - str.length();
+    }
+
+    /**
+     * Compare two UTF-8 strings stored in buffers, in the same order as
+     * {@link String#compareTo(String)}.
+     * <p>
+     * UTF-8 bytes sort in code point order, which only differs from the order of
+     * {@link String}s (by UTF-16 chars) between supplementary characters and
+     * characters from U+E000 up. So the bytes are compared directly, and only the
+     * first differing characters are decoded.
+     *
+     * @return a negative number, zero or a positive number if the first string
+     *         is less than, equal to or greater than the second.
+     */
+    static int compare(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int n = Math.min(aLength, bLength);
+        int i = 0;
+        while (i < n && a.get(aOffset + i) == b.get(bOffset + i)) {
+            ++i;
+        }
+        if (i == n) {
+            return aLength - bLength; // One is a prefix of the other
+        }
+        // Back up to the start of the differing characters (the same in both, as their lead bytes match)
+        while (i > 0 && (a.get(aOffset + i) & 0xC0) == 0x80) {
+            --i;
+        }
+        int aCodePoint = codePointAt(a, aOffset + i);
+        int bCodePoint = codePointAt(b, bOffset + i);
+        boolean aSupplementary = aCodePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT;
+        if (aSupplementary == (bCodePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT)) {
+            return aCodePoint - bCodePoint;
+        }
+        // A supplementary character starts with a high surrogate, which sorts below U+E000
+        return (aSupplementary ? Character.highSurrogate(aCodePoint) : aCodePoint)
+                - (aSupplementary ? bCodePoint : Character.highSurrogate(bCodePoint));
+    }
+
+    private static int codePointAt(ByteBuffer buf, int pos) {
+        int b = buf.get(pos) & 0xFF;
+        if (b < 0x80) {
+            return b;
+        } else if (b < 0xE0) {
+            return ((b & 0x1F) << 6) | (buf.get(pos + 1) & 0x3F);
+        } else if (b < 0xF0) {
+            return ((b & 0x0F) << 12) | ((buf.get(pos + 1) & 0x3F) << 6) | (buf.get(pos + 2) & 0x3F);
+        } else {
+            return ((b & 0x07) << 18) | ((buf.get(pos + 1) & 0x3F) << 12)
+                    | ((buf.get(pos + 2) & 0x3F) << 6) | (buf.get(pos + 3) & 0x3F);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package files;
+
+import java.io.IOException;
+
+/**
+ * Reads bit fields at arbitrary bit offsets from a file. Bit 0 is the MSB of the
+ * first byte, and bits past the end of the file read as 0.
+ * <p>
+ * Implementations only supply the file's aligned 64-bit words; a field is read
+ * from the (at most two) words it overlaps with a few shifts, without allocating.
+ */
+interface BitReader {
+    /**
+     * Returns the length of the file, in bits.
+     */
+    long bitLength();
+
+    /**
+     * Returns the aligned 64-bit word at an index (the file's bytes 8*index to
+     * 8*index+7, big-endian), zero-padded past the end of the file.
+     */
+    long word(long index) throws IOException;
+
+    /**
+     * Read a field of up to 64 bits.
+     *
+     * @param bitIndex the index of the field's first (most significant) bit
+     * @param bits     the width of the field, from 1 to 64
+     * @return the field, as an unsigned number
+     */
+    default long read(long bitIndex, int bits) throws IOException {
+        if (bitIndex < 0) {
+            throw new IllegalArgumentException("Bit index cannot be negative: " + bitIndex);
+        }
+        if (bits < 1 || bits > 64) {
+            throw new IllegalArgumentException("Field width must be between 1 and 64 bits: " + bits);
+        }
+        long word = bitIndex >>> 6;
+        int offset = (int) (bitIndex & 63);
+        long value = word(word) << offset;
+        if (offset != 0 && offset + bits > 64) {
+            value |= word(word + 1) >>> (64 - offset);
+        }
+        return value >>> (64 - bits);
+    }
+}
@@ -0,0 +1,469 @@
+package files;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Sorts a file of fixed-width records in place, treating each record as an
+ * unsigned big-endian number of 1 to 8 bytes, using a bounded amount of memory.
+ * <p>
+ * The file is read in runs that fit the memory budget, each of which is sorted
+ * in a {@code long[]} and spilled to a temporary file. The runs are then merged
+ * back into the file, many at a time, through buffered channels. A file that
+ * fits the budget is sorted in a single run, without temporary files. If there
+ * are too many runs to merge at once with reasonably sized buffers, they are
+ * first merged into fewer, longer runs.
+ * <p>
+ * With a parallelism above 1, the runs (or, for a file that fits the budget,
+ * disjoint slices of it) are read and sorted concurrently, as are the
+ * intermediate merges, with the memory budget shared between the threads. The
+ * final merge is sequential.
+ */
+public class ExternalRecordSorter {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    static final int MIN_MERGE_RECORDS = 64; // The smallest buffer worth merging through, in records
+    static final int MAX_FAN_IN = 512;
+    static final int MIN_SLICE_RECORDS = 1 << 12; // The smallest slice worth sorting on its own thread
+
+    private final int recordWidth;
+    private final long memoryBudget;
+    private final File tempDir;
+    private final int parallelism;
+
+    /**
+     * Create a sorter with the default memory budget, which spills to the default temporary directory.
+     *
+     * @param recordWidth the width of the records in bytes, from 1 to 8
+     */
+    public ExternalRecordSorter(int recordWidth) {
+        this(recordWidth, DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    /**
+     * @param recordWidth  the width of the records in bytes, from 1 to 8
+     * @param memoryBudget roughly how many bytes of heap to use for records and buffers
+     * @param tempDir      where to spill the sorted runs, or null for the default temporary directory
+     */
+    public ExternalRecordSorter(int recordWidth, long memoryBudget, File tempDir) {
+        this(recordWidth, memoryBudget, tempDir, 1);
+    }
+
+    /**
+     * @param recordWidth  the width of the records in bytes, from 1 to 8
+     * @param memoryBudget roughly how many bytes of heap to use for records and buffers, across all threads
+     * @param tempDir      where to spill the sorted runs, or null for the default temporary directory
+     * @param parallelism  the number of threads to sort with
+     */
+    public ExternalRecordSorter(int recordWidth, long memoryBudget, File tempDir, int parallelism) {
+        if (recordWidth < 1 || recordWidth > Long.BYTES) {
+            throw new IllegalArgumentException("Record width must be between 1 and 8 bytes: " + recordWidth);
+        }
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        this.recordWidth = recordWidth;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+        this.parallelism = Parallel.checkParallelism(parallelism);
+    }
+
+    public int getRecordWidth() {
+        return recordWidth;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sort the records of the channel's file in place.
+     * The channel's position is not changed.
+     *
+     * @param channel FileChannel to be sorted, open for reading and writing.
+     * @throws IllegalArgumentException if the file size is not a multiple of the record width
+     */
+    public void sort(FileChannel channel) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        long fileSize = channel.size();
+        if (fileSize % recordWidth != 0) {
+            throw new IllegalArgumentException("File size must be a multiple of " + recordWidth + " bytes.");
+        }
+        long count = fileSize / recordWidth;
+        if (count < 2) {
+            return;
+        }
+
+        long budgetRecords = Math.max(2, Math.min(memoryBudget / Long.BYTES, Integer.MAX_VALUE - 8));
+        if (count <= budgetRecords) {
+            sortInMemory(channel, (int) count);
+        } else {
+            sortExternally(channel, count, (int) Math.max(2, budgetRecords / parallelism));
+        }
+    }
+
+    /**
+     * Sort a file whose records all fit in the memory budget: read it in slices,
+     * one per thread, sort the slices, and merge them back into the file.
+     */
+    private void sortInMemory(FileChannel channel, int count) throws IOException {
+        long[] records = new long[count];
+        int slices = Math.max(1, Math.min(parallelism, count / MIN_SLICE_RECORDS));
+        if (slices == 1) {
+            readRecords(channel, 0, records, 0, count);
+            Arrays.sort(records);
+            writeRecords(channel, 0, records, 0, count);
+            return;
+        }
+
+        int[] bounds = new int[slices + 1];
+        for (int i = 0; i <= slices; ++i) {
+            bounds[i] = (int) ((long) count * i / slices);
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < slices; ++i) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            tasks.add(() -> {
+                readRecords(channel, (long) from * recordWidth, records, from, to - from);
+                Arrays.sort(records, from, to);
+                return null;
+            });
+        }
+        Parallel.run(parallelism, tasks);
+
+        Run[] runs = new Run[slices];
+        for (int i = 0; i < slices; ++i) {
+            runs[i] = new ArrayRun(records, bounds[i], bounds[i + 1]);
+        }
+        merge(runs, channel, RandomAccess.BUFFER_SIZE / recordWidth);
+    }
+
+    /**
+     * Sort a file that doesn't fit the memory budget: spill sorted runs, on every
+     * thread, and merge them back into the file.
+     */
+    private void sortExternally(FileChannel channel, long count, int runRecords) throws IOException {
+        int numRuns = (int) ((count + runRecords - 1) / runRecords);
+        File[] runFiles = new File[numRuns];
+        List<File> spilled = Collections.synchronizedList(new ArrayList<>()); // Every file created, to delete in the end
+        try {
+            // Each thread sorts every workers-th run in an array of its own
+            int workers = Math.min(parallelism, numRuns);
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int w = 0; w < workers; ++w) {
+                int firstRun = w;
+                tasks.add(() -> {
+                    long[] records = new long[runRecords];
+                    for (int r = firstRun; r < numRuns; r += workers) {
+                        long first = (long) r * runRecords;
+                        int n = (int) Math.min(runRecords, count - first);
+                        readRecords(channel, first * recordWidth, records, 0, n);
+                        Arrays.sort(records, 0, n);
+                        File run = createRunFile(spilled);
+                        try (FileChannel out = FileChannel.open(run.toPath(), StandardOpenOption.WRITE)) {
+                            writeRecords(out, 0, records, 0, n);
+                        }
+                        runFiles[r] = run;
+                    }
+                    return null;
+                });
+            }
+            Parallel.run(parallelism, tasks);
+
+            List<File> runs = Arrays.asList(runFiles);
+            int fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBudget / ((long) MIN_MERGE_RECORDS * recordWidth) - 1));
+            while (runs.size() > fanIn) {
+                int groups = (runs.size() + fanIn - 1) / fanIn;
+                File[] merged = new File[groups];
+                long groupBudget = memoryBudget / Math.min(parallelism, groups);
+                tasks.clear();
+                for (int g = 0; g < groups; ++g) {
+                    int index = g;
+                    List<File> group = runs.subList(g * fanIn, Math.min((g + 1) * fanIn, runs.size()));
+                    if (group.size() == 1) {
+                        merged[g] = group.get(0);
+                        continue;
+                    }
+                    tasks.add(() -> {
+                        File run = createRunFile(spilled);
+                        try (FileChannel out = FileChannel.open(run.toPath(), StandardOpenOption.WRITE)) {
+                            merge(group, out, groupBudget);
+                        }
+                        for (File f : group) {
+                            Files.deleteIfExists(f.toPath());
+                        }
+                        merged[index] = run;
+                        return null;
+                    });
+                }
+                Parallel.run(parallelism, tasks);
+                runs = Arrays.asList(merged);
+            }
+            merge(runs, channel, memoryBudget);
+        } finally {
+            synchronized (spilled) {
+                for (File run : spilled) {
+                    Files.deleteIfExists(run.toPath());
+                }
+            }
+        }
+    }
+
+    private File createRunFile(List<File> spilled) throws IOException {
+        File run = File.createTempFile("sort-run", ".tmp", tempDir);
+        spilled.add(run);
+        return run;
+    }
+
+    /**
+     * Merge sorted run files into a channel, from its start, with buffers that fit a memory budget.
+     */
+    private void merge(List<File> runFiles, FileChannel out, long budget) throws IOException {
+        int k = runFiles.size();
+        int bufferRecords = (int) Math.max(1, Math.min(Integer.MAX_VALUE / recordWidth,
+                budget / ((long) (k + 1) * recordWidth)));
+        FileRun[] runs = new FileRun[k];
+        try {
+            for (int i = 0; i < k; ++i) {
+                runs[i] = new FileRun(FileChannel.open(runFiles.get(i).toPath(), StandardOpenOption.READ), bufferRecords);
+            }
+            merge(runs, out, bufferRecords);
+        } finally {
+            for (FileRun run : runs) {
+                if (run != null) {
+                    run.channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge sorted runs into a channel, from its start.
+     */
+    private void merge(Run[] runs, FileChannel out, int bufferRecords) throws IOException {
+        // A binary min-heap of the runs that aren't exhausted, by their next record
+        int[] heap = new int[runs.length];
+        int size = 0;
+        for (int i = 0; i < runs.length; ++i) {
+            if (runs[i].advance()) {
+                heap[size++] = i;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; --i) {
+            siftDown(heap, size, i, runs);
+        }
+
+        RecordWriter writer = new RecordWriter(out, bufferRecords);
+        while (size > 0) {
+            Run top = runs[heap[0]];
+            writer.write(top.current);
+            if (!top.advance()) {
+                heap[0] = heap[--size];
+            }
+            siftDown(heap, size, 0, runs);
+        }
+        writer.flush();
+    }
+
+    private static void siftDown(int[] heap, int size, int i, Run[] runs) {
+        int run = heap[i];
+        long value = runs[run].current;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && Long.compareUnsigned(runs[heap[child + 1]].current, runs[heap[child]].current) < 0) {
+                child++;
+            }
+            if (Long.compareUnsigned(runs[heap[child]].current, value) >= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = run;
+    }
+
+    /*======= Record encoding ======*/
+
+    // In a run being sorted, records are biased by the sign bit, so that Arrays.sort's
+    // signed order is their unsigned order (which only makes a difference for 8-byte records).
+
+    private void readRecords(FileChannel channel, long pos, long[] records, int from, int n) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ioBufferSize(n));
+        byte[] bytes = buffer.array();
+        int done = 0;
+        while (done < n) {
+            int chunk = Math.min(n - done, bytes.length / recordWidth);
+            buffer.clear().limit(chunk * recordWidth);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, pos + buffer.position()) < 0) {
+                    throw new EOFException("File truncated while sorting at " + (pos + buffer.position()));
+                }
+            }
+            for (int i = 0, off = 0; i < chunk; ++i, off += recordWidth) {
+                records[from + done + i] = decode(bytes, off) ^ Long.MIN_VALUE;
+            }
+            pos += (long) chunk * recordWidth;
+            done += chunk;
+        }
+    }
+
+    private void writeRecords(FileChannel channel, long pos, long[] records, int from, int n) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ioBufferSize(n));
+        byte[] bytes = buffer.array();
+        int done = 0;
+        while (done < n) {
+            int chunk = Math.min(n - done, bytes.length / recordWidth);
+            for (int i = 0, off = 0; i < chunk; ++i, off += recordWidth) {
+                encode(records[from + done + i] ^ Long.MIN_VALUE, bytes, off);
+            }
+            buffer.clear().limit(chunk * recordWidth);
+            while (buffer.hasRemaining()) {
+                pos += channel.write(buffer, pos);
+            }
+            done += chunk;
+        }
+    }
+
+    private int ioBufferSize(int records) {
+        return (int) Math.min((long) records * recordWidth, (long) RandomAccess.BUFFER_SIZE / recordWidth * recordWidth);
+    }
+
+    private long decode(byte[] bytes, int off) {
+        long value = 0;
+        for (int i = 0; i < recordWidth; ++i) {
+            value = (value << 8) | (bytes[off + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private void encode(long value, byte[] bytes, int off) {
+        for (int i = recordWidth - 1; i >= 0; --i) {
+            bytes[off + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * A sorted run being merged; {@link #current} is the record last read,
+     * unbiased, so runs compare with {@link Long#compareUnsigned}.
+     */
+    private abstract static class Run {
+        long current;
+
+        /**
+         * Read the next record into {@link #current}.
+         *
+         * @return false if the run is exhausted
+         */
+        abstract boolean advance() throws IOException;
+    }
+
+    /**
+     * A slice of an array of sorted (biased) records.
+     */
+    private static class ArrayRun extends Run {
+        final long[] records;
+        int next;
+        final int end;
+
+        ArrayRun(long[] records, int from, int to) {
+            this.records = records;
+            this.next = from;
+            this.end = to;
+        }
+
+        @Override
+        boolean advance() {
+            if (next == end) {
+                return false;
+            }
+            current = records[next++] ^ Long.MIN_VALUE;
+            return true;
+        }
+    }
+
+    /**
+     * A run spilled to a file, read sequentially through a buffer.
+     */
+    private class FileRun extends Run {
+        final FileChannel channel;
+        final ByteBuffer buffer;
+        long pos;
+
+        FileRun(FileChannel channel, int bufferRecords) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(bufferRecords * recordWidth);
+            buffer.limit(0);
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, pos);
+                    if (n < 0) {
+                        break;
+                    }
+                    pos += n;
+                }
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    return false;
+                }
+            }
+            current = decode(buffer.array(), buffer.position());
+            buffer.position(buffer.position() + recordWidth);
+            return true;
+        }
+    }
+
+    /**
+     * Writes records sequentially to a channel, from its start.
+     */
+    private class RecordWriter {
+        final FileChannel channel;
+        final ByteBuffer buffer;
+        long pos;
+
+        RecordWriter(FileChannel channel, int bufferRecords) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(bufferRecords * recordWidth);
+        }
+
+        void write(long value) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            encode(value, buffer.array(), buffer.position());
+            buffer.position(buffer.position() + recordWidth);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                pos += channel.write(buffer, pos);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package files;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link BitReader} over memory mappings of a file, so that reading a field
+ * takes one or two 64-bit loads. The file is mapped in segments of up to 1GB,
+ * which are multiples of 8 bytes long, so an aligned word never straddles two.
+ */
+final class MappedBitReader implements BitReader {
+    static final int SEGMENT_SHIFT = 30;
+
+    private final MappedByteBuffer[] segments;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final long size;
+
+    MappedBitReader(FileChannel channel) throws IOException {
+        this(channel, SEGMENT_SHIFT);
+    }
+
+    /**
+     * @param segmentShift the log2 of the size of the mapped segments, at least 3
+     */
+    MappedBitReader(FileChannel channel, int segmentShift) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        size = channel.size();
+        long segmentSize = 1L << segmentShift;
+        segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) >>> segmentShift)];
+        for (int i = 0; i < segments.length; ++i) {
+            long start = (long) i << segmentShift;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+            segments[i].order(ByteOrder.BIG_ENDIAN);
+        }
+        this.segmentShift = segmentShift;
+        this.segmentMask = segmentSize - 1;
+    }
+
+    @Override
+    public long bitLength() {
+        return size * 8;
+    }
+
+    @Override
+    public long read(long bitIndex, int bits) {
+        try {
+            return BitReader.super.read(bitIndex, bits);
+        } catch (IOException e) {
+            throw new AssertionError(e); // Mapped words are read without I/O calls
+        }
+    }
+
+    @Override
+    public long word(long index) {
+        long pos = index << 3;
+        if (pos + 8 <= size) {
+            return segments[(int) (pos >>> segmentShift)].getLong((int) (pos & segmentMask));
+        }
+        long word = 0;
+        for (int i = 0; i < 8; ++i, ++pos) {
+            word <<= 8;
+            if (pos < size) {
+                word |= segments[(int) (pos >>> segmentShift)].get((int) (pos & segmentMask)) & 0xFF;
+            }
+        }
+        return word;
+    }
+}
@@ -0,0 +1,146 @@
+package files;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sorts a file of fixed-width records in place through a memory mapping, with an
+ * MSD radix sort ("American flag sort"): the records are counted by their first
+ * byte, permuted in place into 256 buckets by following cycles of swaps, and each
+ * bucket is then sorted by the next byte. Small buckets are insertion-sorted.
+ * <p>
+ * Records are unsigned big-endian numbers of 1 to 8 bytes, as in
+ * {@link ExternalRecordSorter}. Nothing is allocated per record, and the only heap
+ * used is a few counters per byte of the record: the file's pages are cached by
+ * the operating system, not the JVM. A single mapping is limited to 2GB.
+ */
+final class MappedRadixSort {
+    static final int INSERTION_SORT_THRESHOLD = 32; // In records
+
+    private final MappedByteBuffer buffer;
+    private final int width;
+    private final int[][] ends; // Bucket ends at each depth, reused by all the buckets at that depth
+    private final int[][] next; // Where the next record of each bucket goes, while permuting
+
+    private MappedRadixSort(MappedByteBuffer buffer, int width) {
+        this.buffer = buffer;
+        this.width = width;
+        this.ends = new int[width][256];
+        this.next = new int[width][256];
+    }
+
+    /**
+     * Sort the records of the channel's file in place.
+     *
+     * @throws IllegalArgumentException if the file is larger than 2GB, or its size is not a multiple of the width
+     */
+    static void sort(FileChannel channel, int width) throws IOException {
+        if (width < 1 || width > Long.BYTES) {
+            throw new IllegalArgumentException("Record width must be between 1 and 8 bytes: " + width);
+        }
+        long fileSize = channel.size();
+        if (fileSize % width != 0) {
+            throw new IllegalArgumentException("File size must be a multiple of " + width + " bytes.");
+        }
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File too large to map: " + fileSize + " bytes");
+        }
+        int count = (int) (fileSize / width);
+        if (count < 2) {
+            return;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        new MappedRadixSort(buffer, width).sort(0, count, 0);
+    }
+
+    /**
+     * Sort records [lo, hi), whose bytes before {@code depth} are all equal.
+     */
+    private void sort(int lo, int hi, int depth) {
+        if (hi - lo < INSERTION_SORT_THRESHOLD) {
+            insertionSort(lo, hi);
+            return;
+        }
+
+        int[] end = ends[depth];
+        int[] nxt = next[depth];
+        Arrays.fill(end, 0);
+        for (int i = lo; i < hi; ++i) {
+            end[digit(i, depth)]++;
+        }
+        int pos = lo;
+        for (int b = 0; b < 256; ++b) {
+            nxt[b] = pos;
+            pos += end[b];
+            end[b] = pos;
+        }
+
+        // Move every record into its bucket: take the first misplaced record of a
+        // bucket, and swap it into the bucket it belongs in, until one that belongs there turns up
+        for (int b = 0; b < 256; ++b) {
+            while (nxt[b] < end[b]) {
+                int d = digit(nxt[b], depth);
+                if (d == b) {
+                    nxt[b]++;
+                } else {
+                    swap(nxt[b], nxt[d]++);
+                }
+            }
+        }
+
+        if (depth + 1 < width) {
+            int start = lo;
+            for (int b = 0; b < 256; ++b) {
+                if (end[b] - start > 1) {
+                    sort(start, end[b], depth + 1);
+                }
+                start = end[b];
+            }
+        }
+    }
+
+    private void insertionSort(int lo, int hi) {
+        for (int i = lo + 1; i < hi; ++i) {
+            long key = read(i);
+            int j = i - 1;
+            while (j >= lo) {
+                long other = read(j);
+                if (Long.compareUnsigned(other, key) <= 0) {
+                    break;
+                }
+                write(j + 1, other);
+                --j;
+            }
+            write(j + 1, key);
+        }
+    }
+
+    private int digit(int record, int depth) {
+        return buffer.get(record * width + depth) & 0xFF;
+    }
+
+    private void swap(int a, int b) {
+        long record = read(a);
+        write(a, read(b));
+        write(b, record);
+    }
+
+    private long read(int record) {
+        int off = record * width;
+        long value = 0;
+        for (int i = 0; i < width; ++i) {
+            value = (value << 8) | (buffer.get(off + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private void write(int record, long value) {
+        int off = record * width;
+        for (int i = width - 1; i >= 0; --i) {
+            buffer.put(off + i, (byte) value);
+            value >>>= 8;
+        }
+    }
+}
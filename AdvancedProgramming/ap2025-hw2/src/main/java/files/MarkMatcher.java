@@ -0,0 +1,213 @@
+package files;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Finds the end of the text before any of a set of end marks, in a stream of
+ * chars, one char at a time and without looking back.
+ * <p>
+ * The marks are compiled into an automaton (Aho-Corasick; for a single mark it
+ * is the Knuth-Morris-Pratt automaton): the state is the longest suffix of the
+ * text seen so far that begins some mark, and the transition for every state
+ * and char is precomputed from the failure table, so each char costs a lookup
+ * and nothing is allocated. The table has a row per prefix of the marks and a
+ * column per distinct char in them, so it suits marks of moderate total length.
+ * <p>
+ * When marks end at the same char, the longest of them is reported. A matcher
+ * holds the state of a scan, so it may be reused, but not by several threads at once.
+ */
+public class MarkMatcher {
+    static final int BUFFER_SIZE = 8192; // In chars
+
+    private final String[] marks;
+    private final char[] alphabet; // The distinct chars of the marks, sorted
+    private final int[] asciiColumns = new int[128];
+    private final int[] transitions; // [state * alphabet.length + column]
+    private final int[] matches; // The index of the longest mark ending at each state, or -1
+    private int state;
+    private char[] buffer;
+
+    /**
+     * @param marks the end marks, which must not be empty
+     * @throws IllegalArgumentException if there are no marks, or one is null or empty
+     */
+    public MarkMatcher(String... marks) {
+        if (marks == null || marks.length == 0) {
+            throw new IllegalArgumentException("At least one end mark is required");
+        }
+        StringBuilder chars = new StringBuilder();
+        for (String mark : marks) {
+            if (mark == null || mark.isEmpty()) {
+                throw new IllegalArgumentException("End marks cannot be null or empty");
+            }
+            chars.append(mark);
+        }
+        this.marks = marks.clone();
+
+        char[] all = chars.toString().toCharArray();
+        Arrays.sort(all);
+        int distinct = 0;
+        for (int i = 0; i < all.length; ++i) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                all[distinct++] = all[i];
+            }
+        }
+        alphabet = Arrays.copyOf(all, distinct);
+        Arrays.fill(asciiColumns, -1);
+        for (int col = 0; col < alphabet.length && alphabet[col] < 128; ++col) {
+            asciiColumns[alphabet[col]] = col;
+        }
+
+        // The trie of the marks; state 0 is the empty prefix
+        List<int[]> rows = new ArrayList<>();
+        List<Integer> terminals = new ArrayList<>();
+        rows.add(newRow());
+        terminals.add(-1);
+        for (int m = 0; m < this.marks.length; ++m) {
+            int s = 0;
+            for (int i = 0; i < this.marks[m].length(); ++i) {
+                int col = column(this.marks[m].charAt(i));
+                if (rows.get(s)[col] < 0) {
+                    rows.get(s)[col] = rows.size();
+                    rows.add(newRow());
+                    terminals.add(-1);
+                }
+                s = rows.get(s)[col];
+            }
+            if (terminals.get(s) < 0) {
+                terminals.set(s, m);
+            }
+        }
+
+        // Fill in the missing transitions from the failure links, breadth first,
+        // so that a state's failure state (which is shallower) is always complete
+        int width = alphabet.length;
+        transitions = new int[rows.size() * width];
+        matches = new int[rows.size()];
+        int[] failure = new int[rows.size()];
+        Queue<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        matches[0] = -1;
+        while (!queue.isEmpty()) {
+            int s = queue.remove();
+            int[] row = rows.get(s);
+            for (int col = 0; col < width; ++col) {
+                int t = row[col];
+                if (t < 0) {
+                    transitions[s * width + col] = s == 0 ? 0 : transitions[failure[s] * width + col];
+                } else {
+                    transitions[s * width + col] = t;
+                    failure[t] = s == 0 ? 0 : transitions[failure[s] * width + col];
+                    matches[t] = terminals.get(t) >= 0 ? terminals.get(t) : matches[failure[t]];
+                    queue.add(t);
+                }
+            }
+        }
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabet.length];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private int column(char c) {
+        if (c < 128) {
+            return asciiColumns[c];
+        }
+        int col = Arrays.binarySearch(alphabet, c);
+        return col < 0 ? -1 : col;
+    }
+
+    public int getMarkCount() {
+        return marks.length;
+    }
+
+    public String getMark(int index) {
+        return marks[index];
+    }
+
+    /**
+     * Forget the text seen so far, to start a new scan.
+     */
+    public void reset() {
+        state = 0;
+    }
+
+    /**
+     * Feed the next char of the text.
+     *
+     * @return the index of the (longest) mark that the text now ends with, or -1 if none
+     */
+    public int next(char c) {
+        int col = column(c);
+        state = col < 0 ? 0 : transitions[state * alphabet.length + col];
+        return matches[state];
+    }
+
+    /**
+     * Read from the input until one of the marks is read, appending the text
+     * before the mark to {@code out}. If the mark isn't found, all the text to the
+     * end of the stream is appended.
+     * <p>
+     * If the reader supports {@link Reader#mark(int)}, it is read a block at a time,
+     * and then reset to just after the end mark; otherwise it is read a char at a
+     * time (so wrap it in a {@link java.io.BufferedReader}). Either way, nothing
+     * after the end mark is consumed.
+     *
+     * @return the index of the mark found, or -1 if the stream ended first
+     */
+    public int readUntil(Reader in, StringBuilder out) throws IOException {
+        reset();
+        if (!in.markSupported()) {
+            int c;
+            while ((c = in.read()) != -1) {
+                out.append((char) c);
+                int m = next((char) c);
+                if (m >= 0) {
+                    out.setLength(out.length() - marks[m].length());
+                    return m;
+                }
+            }
+            return -1;
+        }
+
+        if (buffer == null) {
+            buffer = new char[BUFFER_SIZE];
+        }
+        while (true) {
+            in.mark(buffer.length);
+            int n = in.read(buffer, 0, buffer.length);
+            if (n == -1) {
+                return -1;
+            }
+            for (int i = 0; i < n; ++i) {
+                int m = next(buffer[i]);
+                if (m >= 0) {
+                    out.append(buffer, 0, i + 1);
+                    out.setLength(out.length() - marks[m].length());
+                    in.reset();
+                    skipFully(in, i + 1);
+                    return m;
+                }
+            }
+            out.append(buffer, 0, n);
+        }
+    }
+
+    private static void skipFully(Reader in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                throw new IOException("Failed to skip past the end mark");
+            }
+            n -= skipped;
+        }
+    }
+}
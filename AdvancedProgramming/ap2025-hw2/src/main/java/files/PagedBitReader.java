@@ -0,0 +1,196 @@
+package files;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A {@link BitReader} over a file channel, through a small cache of fixed-size
+ * pages, for files too large to map or read at once. The least recently used
+ * page is evicted to make room, and its buffer is reused for the new page.
+ * <p>
+ * The cache is a few parallel arrays (each slot's page index, buffer and time
+ * of last use), searched linearly, so that finding a page allocates nothing;
+ * it is meant to hold tens of pages, not thousands.
+ * <p>
+ * Pages are multiples of 8 bytes long, so an aligned word never straddles two;
+ * a field that does straddle two pages is read from both. The reader counts the
+ * fields read, the page hits and misses, and the bytes read from the channel;
+ * pass it to {@link TreasureHunt#findTreasure(PagedBitReader, TreasureMapDecoder, long)}
+ * to see them for a hunt. It is not thread-safe.
+ */
+public final class PagedBitReader implements BitReader {
+    public static final int DEFAULT_PAGE_SIZE = 1 << 16;
+    public static final int DEFAULT_MAX_PAGES = 64;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int pageShift;
+    private final int maxPages;
+    private final long[] pageIndex; // The page held in each slot, or -1
+    private final ByteBuffer[] pageBuffers; // Allocated when the slot is first used
+    private final long[] lastUsed; // The clock when each slot was last used; 0 if never
+    private long clock;
+
+    // The page used last, which most reads hit, so they don't need to search
+    private long lastPageIndex = -1;
+    private int lastSlot;
+    private ByteBuffer lastPage;
+
+    private long reads;
+    private long hits;
+    private long misses;
+    private long bytesRead;
+
+    public PagedBitReader(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param pageSize the size of the pages, a power of two of at least 8 bytes
+     * @param maxPages the number of pages to cache
+     */
+    public PagedBitReader(FileChannel channel, int pageSize, int maxPages) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        if (pageSize < Long.BYTES || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two of at least 8 bytes: " + pageSize);
+        }
+        if (maxPages < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one page: " + maxPages);
+        }
+        this.channel = channel;
+        this.size = channel.size();
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.maxPages = maxPages;
+        this.pageIndex = new long[maxPages];
+        this.pageBuffers = new ByteBuffer[maxPages];
+        this.lastUsed = new long[maxPages];
+        Arrays.fill(pageIndex, -1);
+    }
+
+    @Override
+    public long bitLength() {
+        return size * 8;
+    }
+
+    @Override
+    public long read(long bitIndex, int bits) throws IOException {
+        reads++;
+        return BitReader.super.read(bitIndex, bits);
+    }
+
+    @Override
+    public long word(long index) throws IOException {
+        long pos = index << 3;
+        if (pos >= size) {
+            return 0;
+        }
+        return page(pos >>> pageShift).getLong((int) (pos & ((1 << pageShift) - 1)));
+    }
+
+    /**
+     * Returns a page, zero-padded past the end of the file, reading it if it isn't cached.
+     */
+    private ByteBuffer page(long index) throws IOException {
+        if (index == lastPageIndex) {
+            hits++;
+            lastUsed[lastSlot] = ++clock;
+            return lastPage;
+        }
+        // Look for the page, and for the least recently used slot (an unused one first) in case it isn't there
+        int slot = -1;
+        int victim = 0;
+        for (int i = 0; i < maxPages; ++i) {
+            if (pageIndex[i] == index) {
+                slot = i;
+                break;
+            }
+            if (lastUsed[i] < lastUsed[victim]) {
+                victim = i;
+            }
+        }
+        if (slot >= 0) {
+            hits++;
+        } else {
+            misses++;
+            slot = victim;
+            if (pageBuffers[slot] == null) {
+                pageBuffers[slot] = ByteBuffer.allocate(1 << pageShift).order(ByteOrder.BIG_ENDIAN);
+            }
+            pageIndex[slot] = -1; // Until it is loaded
+            lastPageIndex = -1;
+            load(index, pageBuffers[slot]);
+            pageIndex[slot] = index;
+        }
+        lastUsed[slot] = ++clock;
+        lastPageIndex = index;
+        lastSlot = slot;
+        lastPage = pageBuffers[slot];
+        return lastPage;
+    }
+
+    private void load(long index, ByteBuffer page) throws IOException {
+        long start = index << pageShift;
+        page.clear();
+        while (page.hasRemaining()) {
+            int n = channel.read(page, start + page.position());
+            if (n < 0) {
+                break;
+            }
+            bytesRead += n;
+        }
+        while (page.hasRemaining()) {
+            page.put((byte) 0);
+        }
+    }
+
+    /**
+     * Returns the number of fields read.
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * Returns the number of word reads that found their page in the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of word reads that had to read their page from the channel.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of word reads that found their page in the cache, or 0 if there were none.
+     */
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of bytes read from the channel.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reset the counters; the cached pages are kept.
+     */
+    public void resetStats() {
+        reads = 0;
+        hits = 0;
+        misses = 0;
+        bytesRead = 0;
+    }
+}
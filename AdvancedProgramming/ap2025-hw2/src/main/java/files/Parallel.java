@@ -0,0 +1,97 @@
+package files;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the independent parts of a file operation on several threads.
+ */
+final class Parallel {
+    private Parallel() {
+    }
+
+    /**
+     * Check a requested number of threads.
+     */
+    static int checkParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        return parallelism;
+    }
+
+    /**
+     * Run tasks on up to {@code parallelism} threads (on this one, if there's only
+     * one thread or one task), and wait for all of them to finish.
+     * <p>
+     * If a task fails, the others still run to completion, so that none of them
+     * is still using the file when this returns; then the first failure is thrown.
+     */
+    static void run(int parallelism, List<? extends Callable<?>> tasks) throws IOException {
+        if (parallelism == 1 || tasks.size() <= 1) {
+            for (Callable<?> task : tasks) {
+                call(task);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, tasks.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Callable<?> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            Throwable failure = null;
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true; // Still wait, the task is using the file
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                rethrow(failure);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void call(Callable<?> task) throws IOException {
+        try {
+            task.call();
+        } catch (Exception e) {
+            rethrow(e);
+        }
+    }
+
+    private static void rethrow(Throwable failure) throws IOException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IOException("Failed to process file", failure);
+    }
+}
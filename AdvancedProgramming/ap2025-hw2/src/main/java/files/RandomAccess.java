@@ -1,12 +1,22 @@
 package files;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 public class RandomAccess {
+    static final int BUFFER_SIZE = 1 << 16;
+    static final long TRI_BYTES_MEMORY_BUDGET = 1L << 20; // About 128K records in memory at a time
+
     /**
      * Treat the file as an array of (unsigned) 8-bit values and sort them
-     * in-place using a bubble-sort algorithm.
+     * in-place using a counting sort (see {@link #sortBytes(FileChannel)}).
      * You may not read the whole file into memory!
      *
      * @param file RandomAccessFile to be sorted.
@@ -15,40 +25,160 @@ public class RandomAccess {
         if (file == null) {
             throw new IllegalArgumentException("File cannot be null");
         }
+        sortBytes(file.getChannel());
+    }
 
-        long fileSize = file.length();
+    /**
+     * Treat the channel's file as an array of (unsigned) 8-bit values and sort them
+     * in-place. Since there are only 256 values, the file is read once to count
+     * each value, and then rewritten in order: two sequential passes through a
+     * fixed-size buffer, whatever the size of the file.
+     * The channel's position is not changed.
+     *
+     * @param channel FileChannel to be sorted, open for reading and writing.
+     */
+    public static void sortBytes(FileChannel channel) throws IOException {
+        sortBytes(channel, 1);
+    }
+
+    /**
+     * Sort a file of bytes like {@link #sortBytes(FileChannel)}, on up to
+     * {@code parallelism} threads: the file is split into contiguous segments,
+     * whose bytes are counted concurrently, and whose sorted contents are then
+     * written concurrently. Each thread uses a fixed-size buffer.
+     *
+     * @param channel     FileChannel to be sorted, open for reading and writing.
+     * @param parallelism the number of threads to use
+     */
+    public static void sortBytes(FileChannel channel, int parallelism) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        Parallel.checkParallelism(parallelism);
+
+        long fileSize = channel.size();
         if (fileSize < 2) {
             return;
         }
 
-        boolean swapped;
-        do {
-            swapped = false;
-            for (long i = 0; i < fileSize - 1; i++) {
-                file.seek(i);
-                int firstByte = file.readUnsignedByte();
-                int secondByte = file.readUnsignedByte();
-
-                if (firstByte > secondByte) {
-                    file.seek(i);
-                    file.writeByte(secondByte);
-                    file.writeByte(firstByte);
-                    swapped = true;
+        int segments = (int) Math.max(1, Math.min(parallelism, fileSize / BUFFER_SIZE));
+        long[] bounds = new long[segments + 1];
+        for (int i = 0; i <= segments; ++i) {
+            bounds[i] = fileSize / segments * i + Math.min(i, fileSize % segments);
+        }
+
+        long[][] segmentCounts = new long[segments][];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < segments; ++i) {
+            int segment = i;
+            tasks.add(() -> {
+                segmentCounts[segment] = countBytes(channel, bounds[segment], bounds[segment + 1]);
+                return null;
+            });
+        }
+        Parallel.run(parallelism, tasks);
+
+        long[] counts = new long[256];
+        for (long[] segmentCount : segmentCounts) {
+            for (int value = 0; value < 256; ++value) {
+                counts[value] += segmentCount[value];
+            }
+        }
+
+        tasks.clear();
+        for (int i = 0; i < segments; ++i) {
+            int segment = i;
+            tasks.add(() -> {
+                writeSortedBytes(channel, counts, bounds[segment], bounds[segment + 1]);
+                return null;
+            });
+        }
+        Parallel.run(parallelism, tasks);
+    }
+
+    /**
+     * Count each byte value in the range [from, to) of a file.
+     */
+    private static long[] countBytes(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, to - from));
+        byte[] bytes = buffer.array();
+        long[] counts = new long[256];
+        for (long pos = from; pos < to; ) {
+            buffer.clear().limit((int) Math.min(bytes.length, to - pos));
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new EOFException("File truncated while sorting at " + pos);
+            }
+            for (int i = 0; i < n; ++i) {
+                counts[bytes[i] & 0xFF]++;
+            }
+            pos += n;
+        }
+        return counts;
+    }
+
+    /**
+     * Write the range [from, to) of the sorted file with the given byte counts.
+     */
+    private static void writeSortedBytes(FileChannel channel, long[] counts, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, to - from));
+        byte[] bytes = buffer.array();
+        long pos = from;
+        long next = from; // The next position to put in the buffer
+        int filled = 0;
+        long valueEnd = 0; // The end of the current value's run in the sorted file
+        for (int value = 0; value < 256 && next < to; ++value) {
+            valueEnd += counts[value];
+            long runEnd = Math.min(valueEnd, to);
+            while (next < runEnd) {
+                int run = (int) Math.min(runEnd - next, bytes.length - filled);
+                Arrays.fill(bytes, filled, filled + run, (byte) value);
+                filled += run;
+                next += run;
+                if (filled == bytes.length) {
+                    pos = writeFully(channel, buffer, filled, pos);
+                    filled = 0;
                 }
             }
-        } while (swapped);
+        }
+        writeFully(channel, buffer, filled, pos);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, int length, long pos) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+        return pos;
     }
 
     /**
      * Treat the file as an array of unsigned 24-bit values (stored MSB first) and
-     * sort
-     * them in-place using a bubble-sort algorithm.
-     * You may not read the whole file into memory!
+     * sort them in-place, with an external merge sort (see {@link ExternalRecordSorter}).
+     * You may not read the whole file into memory! About 1MB of heap is used, so
+     * only files of up to about 128K values are sorted in a single run; larger
+     * ones are spilled to temporary files in sorted runs, and merged.
      *
      * @param file RandomAccessFile to be sorted.
      * @throws IOException
      */
     public static void sortTriBytes(RandomAccessFile file) throws IOException {
+        sortTriBytes(file, TRI_BYTES_MEMORY_BUDGET);
+    }
+
+    /**
+     * Sort a file of unsigned 24-bit values like {@link #sortTriBytes(RandomAccessFile)},
+     * using about {@code memoryBudget} bytes of heap.
+     */
+    public static void sortTriBytes(RandomAccessFile file, long memoryBudget) throws IOException {
+        sortTriBytes(file, memoryBudget, 1);
+    }
+
+    /**
+     * Sort a file of unsigned 24-bit values like {@link #sortTriBytes(RandomAccessFile)},
+     * using about {@code memoryBudget} bytes of heap, on up to {@code parallelism} threads.
+     */
+    public static void sortTriBytes(RandomAccessFile file, long memoryBudget, int parallelism) throws IOException {
         if (file == null) {
             throw new IllegalArgumentException("File cannot be null");
         }
@@ -58,33 +188,44 @@ public class RandomAccess {
             throw new IllegalArgumentException("File size must be a multiple of 3 bytes.");
         }
 
-        boolean swapped;
-        do {
-            swapped = false;
-            for (long i = 0; i < fileSize - 3; i += 3) {
-                // Read two consecutive 24-bit values
-                file.seek(i);
-                int firstValue = (file.readUnsignedByte() << 16) |
-                        (file.readUnsignedByte() << 8) |
-                        file.readUnsignedByte();
-                int secondValue = (file.readUnsignedByte() << 16) |
-                        (file.readUnsignedByte() << 8) |
-                        file.readUnsignedByte();
-
-                // Swap if necessary
-                if (firstValue > secondValue) {
-                    file.seek(i);
-                    file.writeByte((secondValue >> 16) & 0xFF);
-                    file.writeByte((secondValue >> 8) & 0xFF);
-                    file.writeByte(secondValue & 0xFF);
-
-                    file.writeByte((firstValue >> 16) & 0xFF);
-                    file.writeByte((firstValue >> 8) & 0xFF);
-                    file.writeByte(firstValue & 0xFF);
-
-                    swapped = true;
-                }
-            }
-        } while (swapped);
+        new ExternalRecordSorter(3, memoryBudget, null, parallelism).sort(file.getChannel());
+    }
+
+    /**
+     * Treat the file as an array of unsigned 24-bit values (stored MSB first) and
+     * sort them in-place through a memory mapping of the file, with a radix sort.
+     * This is much faster than {@link #sortTriBytes(RandomAccessFile)}, but limited
+     * to files of up to 2GB.
+     *
+     * @param file RandomAccessFile to be sorted.
+     * @throws IOException
+     */
+    public static void sortTriBytesMapped(RandomAccessFile file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+
+        long fileSize = file.length();
+        if (fileSize < 3 || fileSize % 3 != 0) {
+            throw new IllegalArgumentException("File size must be a multiple of 3 bytes.");
+        }
+
+        MappedRadixSort.sort(file.getChannel(), 3);
+    }
+
+    /**
+     * Treat the file as an array of unsigned big-endian values of {@code recordWidth}
+     * bytes (1 to 8), and sort them in-place through a memory mapping of the file,
+     * with a radix sort. The file may be up to 2GB; sort larger files with an
+     * {@link ExternalRecordSorter}.
+     *
+     * @param file RandomAccessFile to be sorted.
+     * @throws IOException
+     */
+    public static void sortRecordsMapped(RandomAccessFile file, int recordWidth) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null");
+        }
+        MappedRadixSort.sort(file.getChannel(), recordWidth);
     }
-}
\ No newline at end of file
+}
@@ -1,51 +1,288 @@
 package files;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 
 public class Streams {
+    static final int BLOCK_SIZE = 1 << 16;
+    static final int NUMBER_BYTES = 5;
+    static final int LOAD_PADDING = Long.BYTES - NUMBER_BYTES; // So the last number in a block can be loaded as a long
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BUFFER_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     /**
      * Read from an InputStream until a quote character (") is found, then read
      * until another quote character is found and return the bytes in between the
      * two quotes.
      * If no quote character was found return null, if only one, return the bytes
      * from the quote to the end of the stream.
+     * This boxes every byte; {@link #getQuotedBytes(InputStream)} doesn't.
      *
      * @param in InputStream to read from
      * @return A list containing the bytes between the first occurrence of a quote
      *         character and the second.
      */
     public static List<Byte> getQuoted(InputStream in) throws IOException {
+        ByteBuffer quoted = getQuotedBytes(in);
+        if (quoted == null) {
+            return null;
+        }
+
+        List<Byte> result = new ArrayList<>(quoted.remaining());
+        while (quoted.hasRemaining()) {
+            result.add(quoted.get());
+        }
+        return result;
+    }
+
+    /**
+     * Read from an InputStream the bytes between the first two quote characters
+     * ("), like {@link #getQuoted(InputStream)}, into a byte array.
+     * <p>
+     * If the stream supports {@link InputStream#mark(int)}, it is read a block at
+     * a time, and then reset to just after the closing quote; otherwise it is read
+     * a byte at a time (so wrap it in a {@link java.io.BufferedInputStream}). Either
+     * way, nothing after the closing quote is consumed.
+     *
+     * @param in InputStream to read from
+     * @return A buffer wrapping an array with the bytes between the quotes, from
+     *         its position to its limit; null if there was no quote.
+     */
+    public static ByteBuffer getQuotedBytes(InputStream in) throws IOException {
         if (in == null) {
             return null;
         }
 
-        List<Byte> result = new ArrayList<>();
-        boolean firstQuoteFound = false;
-        int currentByte;
+        boolean markable = in.markSupported();
+        byte[] block = new byte[markable ? BLOCK_SIZE : 1];
+        byte[] result = null; // Allocated once the opening quote is found
+        int length = 0;
+        while (true) {
+            if (markable) {
+                in.mark(block.length);
+            }
+            int n = read(in, block, markable);
+            if (n == -1) {
+                return result == null ? null : ByteBuffer.wrap(result, 0, length);
+            }
 
-        while ((currentByte = in.read()) != -1) {
-            if (currentByte == '"') {
-                if (firstQuoteFound) {
-                    return result;
-                } else {
-                    firstQuoteFound = true;
+            int start = 0;
+            if (result == null) {
+                int open = indexOfQuote(block, 0, n);
+                if (open < 0) {
+                    continue;
                 }
-            } else if (firstQuoteFound) {
-                result.add((byte) currentByte);
+                result = new byte[64];
+                start = open + 1;
+            }
+            int close = indexOfQuote(block, start, n);
+            int end = close < 0 ? n : close;
+            if (result.length - length < end - start) {
+                result = Arrays.copyOf(result, Math.max(2 * result.length, length + end - start));
             }
+            System.arraycopy(block, start, result, length, end - start);
+            length += end - start;
+
+            if (close >= 0) {
+                if (markable) {
+                    in.reset();
+                    skipFully(in, close + 1);
+                }
+                return ByteBuffer.wrap(result, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Find the bytes between the first two quote characters (") from a buffer's
+     * position, without copying them, and move the position past the closing quote
+     * (or to the limit, if there is none).
+     *
+     * @param buf ByteBuffer to read from
+     * @return A slice of the buffer between the two quotes (or from the quote to the
+     *         limit, if there is only one), sharing its content; null if there was no quote.
+     */
+    public static ByteBuffer getQuoted(ByteBuffer buf) {
+        if (buf == null) {
+            return null;
         }
 
-        return firstQuoteFound ? result : null;
+        int limit = buf.limit();
+        int open = indexOfQuote(buf, buf.position(), limit);
+        if (open < 0) {
+            buf.position(limit);
+            return null;
+        }
+        int close = indexOfQuote(buf, open + 1, limit);
+        int end = close < 0 ? limit : close;
+        ByteBuffer quoted = buf.slice(open + 1, end - open - 1);
+        buf.position(close < 0 ? limit : close + 1);
+        return quoted;
+    }
+
+    /**
+     * Iterate over all the quoted spans of a stream: the bytes between the first
+     * and second quote characters ("), between the third and fourth, and so on.
+     * If there's an odd number of quotes, the last span runs to the end of the stream.
+     * <p>
+     * The stream is read lazily, a block at a time, and belongs to the iterator
+     * until it is exhausted. I/O errors are thrown as {@link UncheckedIOException}s.
+     *
+     * @param in InputStream to read from
+     * @return an iterator of buffers, each wrapping an array of its own with a span's bytes
+     */
+    public static Iterator<ByteBuffer> quotedSpans(InputStream in) {
+        if (in == null) {
+            throw new IllegalArgumentException("Stream cannot be null");
+        }
+        return new QuotedSpans(in);
+    }
+
+    private static class QuotedSpans implements Iterator<ByteBuffer> {
+        private final InputStream in;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private int pos;
+        private int limit;
+        private boolean eof;
+        private ByteBuffer next;
+
+        QuotedSpans(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !eof) {
+                try {
+                    next = readSpan();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ByteBuffer span = next;
+            next = null;
+            return span;
+        }
+
+        private ByteBuffer readSpan() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return null;
+                }
+                int open = indexOfQuote(block, pos, limit);
+                if (open >= 0) {
+                    pos = open + 1;
+                    break;
+                }
+                pos = limit;
+            }
+
+            byte[] span = new byte[64];
+            int length = 0;
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return ByteBuffer.wrap(span, 0, length);
+                }
+                int close = indexOfQuote(block, pos, limit);
+                int end = close < 0 ? limit : close;
+                if (span.length - length < end - pos) {
+                    span = Arrays.copyOf(span, Math.max(2 * span.length, length + end - pos));
+                }
+                System.arraycopy(block, pos, span, length, end - pos);
+                length += end - pos;
+                if (close >= 0) {
+                    pos = close + 1;
+                    return ByteBuffer.wrap(span, 0, length);
+                }
+                pos = limit;
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(block);
+            if (n == -1) {
+                eof = true;
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+    }
+
+    private static int read(InputStream in, byte[] block, boolean bulk) throws IOException {
+        if (bulk) {
+            return in.read(block, 0, block.length);
+        }
+        int b = in.read();
+        if (b == -1) {
+            return -1;
+        }
+        block[0] = (byte) b;
+        return 1;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Stream ended while skipping past the closing quote");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static int indexOfQuote(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (bytes[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfQuote(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (buf.get(i) == '"') {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
      * Read from the input until a specific string is read, return the string read
      * up to (not including) the endMark.
+     * The input is scanned with a {@link MarkMatcher}; nothing past the endMark is consumed.
      *
      * @param in      the Reader to read from
      * @param endMark the string indicating to stop reading.
@@ -56,29 +293,40 @@ public class Streams {
         if (in == null || endMark == null || endMark.isEmpty()) {
             return null;
         }
+        return readUntilAny(in, endMark);
+    }
 
-        StringBuilder result = new StringBuilder();
-        int currentChar;
-        StringBuilder buffer = new StringBuilder();
-
-        while ((currentChar = in.read()) != -1) {
-            result.append((char) currentChar);
-            buffer.append((char) currentChar);
-
-            if (buffer.toString().endsWith(endMark)) {
-                return result.substring(0, result.length() - endMark.length());
-            }
-
-            if (buffer.length() > endMark.length()) {
-                buffer.deleteCharAt(0);
+    /**
+     * Read from the input until any of several strings is read, return the string
+     * read up to (not including) that endMark. If several endMarks end at the same
+     * character, the longest one is left out.
+     * To split a long input, call {@link MarkMatcher#readUntil(Reader, StringBuilder)}
+     * repeatedly instead, which also tells which endMark was found.
+     *
+     * @param in       the Reader to read from
+     * @param endMarks the strings indicating to stop reading.
+     * @return The string read up to (not including) the first endMark found (if
+     *         none is found, return up to the end of the stream).
+     */
+    public static String readUntilAny(Reader in, String... endMarks) throws IOException {
+        if (in == null || endMarks == null || endMarks.length == 0) {
+            return null;
+        }
+        for (String endMark : endMarks) {
+            if (endMark == null || endMark.isEmpty()) {
+                return null;
             }
         }
 
+        StringBuilder result = new StringBuilder();
+        new MarkMatcher(endMarks).readUntil(in, result);
         return result.toString();
     }
 
     /**
      * Copy bytes from input to output, ignoring all occurrences of badByte.
+     * The bytes are copied a block at a time: each block read is compacted in
+     * place, dropping the bad bytes, and written with a single call.
      *
      * @param in      InputStream to read from
      * @param out     OutputStream to write to
@@ -89,12 +337,50 @@ public class Streams {
             return;
         }
 
-        int currentByte;
-        int unsignedBadByte = badByte & 0xFF; // Traite badByte comme non signé
-        while ((currentByte = in.read()) != -1) {
-            if ((currentByte & 0xFF) != unsignedBadByte) {
-                out.write(currentByte);
+        byte[] block = new byte[BLOCK_SIZE];
+        int n;
+        while ((n = in.read(block)) != -1) {
+            int kept = 0;
+            for (int i = 0; i < n; ++i) {
+                byte b = block[i];
+                block[kept] = b;
+                kept += b == badByte ? 0 : 1; // No branch to mispredict
+            }
+            if (kept > 0) {
+                out.write(block, 0, kept);
+            }
+        }
+    }
+
+    /**
+     * Copy bytes from one (blocking) channel to another, ignoring all occurrences
+     * of badByte, like {@link #filterOut(InputStream, OutputStream, byte)}. The
+     * blocks are read and written through a direct buffer, so for file and socket
+     * channels they are never copied to the heap.
+     *
+     * @param in      ReadableByteChannel to read from
+     * @param out     WritableByteChannel to write to
+     * @param badByte the byte to ignore
+     */
+    public static void filterOut(ReadableByteChannel in, WritableByteChannel out, byte badByte) throws IOException {
+        if (in == null || out == null) {
+            return;
+        }
+
+        ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        while (in.read(block) != -1) {
+            int n = block.position();
+            int kept = 0;
+            for (int i = 0; i < n; ++i) {
+                byte b = block.get(i);
+                block.put(kept, b);
+                kept += b == badByte ? 0 : 1;
             }
+            block.position(0).limit(kept);
+            while (block.hasRemaining()) {
+                out.write(block);
+            }
+            block.clear();
         }
     }
 
@@ -122,4 +408,144 @@ public class Streams {
         }
         return number;
     }
-}
\ No newline at end of file
+
+    /**
+     * Read up to {@code len} 40-bit (unsigned) integers from the stream, as written
+     * by {@link #readNumber(InputStream)}, into {@code numbers}. The stream is read
+     * in blocks (but never past the last number needed), and each number is
+     * decoded with a single 8-byte load.
+     *
+     * @param in      InputStream to read from
+     * @param numbers the array to fill
+     * @param off     the index of the first number to fill
+     * @param len     the maximum number of numbers to read
+     * @return the number of numbers read, which is less than {@code len} only if
+     *         the stream ended first (a partial number at its end is dropped)
+     */
+    public static int readNumbers(InputStream in, long[] numbers, int off, int len) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("Stream cannot be null");
+        }
+        Objects.checkFromIndexSize(off, len, numbers.length);
+
+        byte[] block = new byte[Math.min(len, BLOCK_SIZE / NUMBER_BYTES) * NUMBER_BYTES + LOAD_PADDING];
+        int done = 0;
+        while (done < len) {
+            int want = Math.min(len - done, block.length / NUMBER_BYTES) * NUMBER_BYTES;
+            int n = in.readNBytes(block, 0, want);
+            int count = n / NUMBER_BYTES;
+            for (int i = 0, pos = 0; i < count; ++i, pos += NUMBER_BYTES) {
+                numbers[off + done + i] = (long) LONGS.get(block, pos) >>> 24;
+            }
+            done += count;
+            if (n < want) {
+                break;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Decode up to {@code len} 40-bit (unsigned) integers from a buffer, starting
+     * at its position, into {@code numbers}, and move the position past them.
+     *
+     * @param buf     ByteBuffer to read from
+     * @param numbers the array to fill
+     * @param off     the index of the first number to fill
+     * @param len     the maximum number of numbers to read
+     * @return the number of numbers read, which is less than {@code len} only if
+     *         fewer whole numbers remained in the buffer
+     */
+    public static int readNumbers(ByteBuffer buf, long[] numbers, int off, int len) {
+        if (buf == null) {
+            throw new IllegalArgumentException("Buffer cannot be null");
+        }
+        Objects.checkFromIndexSize(off, len, numbers.length);
+
+        int count = Math.min(len, buf.remaining() / NUMBER_BYTES);
+        int pos = buf.position();
+        int limit = buf.limit();
+        int i = 0;
+        for (; i < count && pos + Long.BYTES <= limit; ++i, pos += NUMBER_BYTES) {
+            numbers[off + i] = (long) BUFFER_LONGS.get(buf, pos) >>> 24;
+        }
+        for (; i < count; ++i, pos += NUMBER_BYTES) { // The last numbers, too close to the limit for a long
+            long number = 0;
+            for (int j = 0; j < NUMBER_BYTES; ++j) {
+                number = (number << 8) | (buf.get(pos + j) & 0xFF);
+            }
+            numbers[off + i] = number;
+        }
+        buf.position(pos);
+        return count;
+    }
+
+    /**
+     * Write 40-bit (unsigned) integers to the stream, each as five bytes with the
+     * most-significant byte first (as read by {@link #readNumber(InputStream)}),
+     * a block at a time, encoding each number with a single 8-byte store.
+     *
+     * @param out     OutputStream to write to
+     * @param numbers the numbers to write
+     * @param off     the index of the first number to write
+     * @param len     the number of numbers to write
+     * @throws IllegalArgumentException if a number doesn't fit in 40 unsigned bits
+     */
+    public static void writeNumbers(OutputStream out, long[] numbers, int off, int len) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("Stream cannot be null");
+        }
+        Objects.checkFromIndexSize(off, len, numbers.length);
+
+        byte[] block = new byte[Math.min(len, BLOCK_SIZE / NUMBER_BYTES) * NUMBER_BYTES + LOAD_PADDING];
+        int done = 0;
+        while (done < len) {
+            int count = Math.min(len - done, block.length / NUMBER_BYTES);
+            for (int i = 0, pos = 0; i < count; ++i, pos += NUMBER_BYTES) {
+                // Each store also zeroes the next number's first three bytes, before they are written
+                LONGS.set(block, pos, checkNumber(numbers[off + done + i]) << 24);
+            }
+            out.write(block, 0, count * NUMBER_BYTES);
+            done += count;
+        }
+    }
+
+    /**
+     * Write 40-bit (unsigned) integers to a buffer, from its position, like
+     * {@link #writeNumbers(OutputStream, long[], int, int)}, and move the position past them.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer doesn't have room for them all
+     * @throws IllegalArgumentException         if a number doesn't fit in 40 unsigned bits
+     */
+    public static void writeNumbers(ByteBuffer buf, long[] numbers, int off, int len) {
+        if (buf == null) {
+            throw new IllegalArgumentException("Buffer cannot be null");
+        }
+        Objects.checkFromIndexSize(off, len, numbers.length);
+        if (buf.remaining() / NUMBER_BYTES < len) {
+            throw new BufferOverflowException();
+        }
+
+        int pos = buf.position();
+        int i = 0;
+        for (; i < len - 1; ++i, pos += NUMBER_BYTES) {
+            // The store overwrites the next number's first three bytes, which are written next
+            BUFFER_LONGS.set(buf, pos, checkNumber(numbers[off + i]) << 24);
+        }
+        for (; i < len; ++i, pos += NUMBER_BYTES) { // The last one, byte by byte so as not to write past it
+            long number = checkNumber(numbers[off + i]);
+            for (int j = NUMBER_BYTES - 1; j >= 0; --j) {
+                buf.put(pos + j, (byte) number);
+                number >>>= 8;
+            }
+        }
+        buf.position(pos);
+    }
+
+    private static long checkNumber(long number) {
+        if (number >>> 40 != 0) {
+            throw new IllegalArgumentException("Number doesn't fit in 40 bits: " + number);
+        }
+        return number;
+    }
+}
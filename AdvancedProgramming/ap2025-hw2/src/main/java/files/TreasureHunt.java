@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 
 public class TreasureHunt {
+    static final int CLUE_BITS = 48;
+
     /**
      * Find the treasure by following the map.
      * <p>
@@ -17,6 +19,8 @@ public class TreasureHunt {
      *     The index of a clue is given in bits from the beginning of the map,
      *     where 0 is the MSB of the first byte (and map_size_in_bytes*8-1 is the LSB of the last byte). </li>
      * </ol>
+     * <p>
+     * The map is read through memory mappings (see {@link MappedBitReader}), so each clue costs a few loads.
      *
      * @param map       This is a {@link FileChannel} containing the encoded treasure map.
      * @param decoder   The decoder used to find the location of the next clue
@@ -25,7 +29,57 @@ public class TreasureHunt {
      * @throws IOException
      */
     public static long findTreasure(FileChannel map, TreasureMapDecoder decoder, long firstClue) throws IOException {
-        // TODO: implement
-        return 0;
+        if (map == null || decoder == null) {
+            throw new IllegalArgumentException("Map and decoder cannot be null");
+        }
+
+        return findTreasure(new MappedBitReader(map), decoder, firstClue);
+    }
+
+    /**
+     * Find the treasure like {@link #findTreasure(FileChannel, TreasureMapDecoder, long)},
+     * but read the map through a cache of {@code maxPages} pages of {@code pageSize}
+     * bytes (see {@link PagedBitReader}), rather than mapping it all, which suits
+     * maps too large to map at once.
+     *
+     * @param pageSize the size of the pages, a power of two of at least 8 bytes
+     * @param maxPages the number of pages to cache
+     */
+    public static long findTreasure(FileChannel map, TreasureMapDecoder decoder, long firstClue,
+                                    int pageSize, int maxPages) throws IOException {
+        if (map == null || decoder == null) {
+            throw new IllegalArgumentException("Map and decoder cannot be null");
+        }
+        return findTreasure(new PagedBitReader(map, pageSize, maxPages), decoder, firstClue);
+    }
+
+    /**
+     * Find the treasure like {@link #findTreasure(FileChannel, TreasureMapDecoder, long)},
+     * but read the map through a {@link PagedBitReader}, whose statistics (the
+     * clues read, page hits and misses, and bytes read) are left for the caller.
+     * A reader can be used for several hunts over the same map, keeping its cached pages.
+     *
+     * @param reader the reader of the encoded treasure map
+     */
+    public static long findTreasure(PagedBitReader reader, TreasureMapDecoder decoder, long firstClue)
+            throws IOException {
+        if (reader == null || decoder == null) {
+            throw new IllegalArgumentException("Map and decoder cannot be null");
+        }
+        return findTreasure((BitReader) reader, decoder, firstClue);
+    }
+
+    static long findTreasure(BitReader reader, TreasureMapDecoder decoder, long firstClue) throws IOException {
+        long mapLength = reader.bitLength();
+        long location = -1;
+        long clue = firstClue;
+        while (true) {
+            long next = decoder.decodeClue(clue, location, mapLength);
+            if (next == -1) {
+                return location;
+            }
+            location = next;
+            clue = reader.read(location, CLUE_BITS);
+        }
     }
 }
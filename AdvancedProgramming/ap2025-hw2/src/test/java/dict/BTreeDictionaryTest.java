@@ -0,0 +1,133 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BTreeDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		// Small pages and cache, so the tests exercise splits and evictions
+		return new BTreeDictionary(dictFile, 1024, 4);
+	}
+
+	/**
+	 * Check a tree several levels deep, and that open() drops unflushed changes.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void deepTreeTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String[] words = randomStrings(MAX_SIZE, MAX_LEN / 2);
+			String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+			fillMap(expected, words, defs);
+			fillMap(dict, words, defs);
+		}
+		testEquality("In-memory deep tree", expected, dict);
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		testEquality("Persistent deep tree", expected, dict);
+
+		fillMap(dict, addWords, addDefs);
+		dict.open(); // Undo the additions
+		testEquality("Reopened deep tree", expected, dict);
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a put-heavy session keeps a bounded number of modified pages in
+	 * memory, and that open() still undoes the changes that were written out.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void boundedDirtyPagesTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		BTreeDictionary dict = (BTreeDictionary) getDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String[] words = randomStrings(MAX_SIZE, MAX_LEN / 2);
+			String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+			fillMap(expected, words, defs);
+			fillMap(dict, words, defs);
+			assertTrue("Too many modified pages in memory: " + dict.getDirtyPageCount(), dict.getDirtyPageCount() <= 4);
+		}
+		dict.close();
+		assertFalse("Shadow file left behind", BTreeDictionary.shadowFileFor(dictFile).exists());
+
+		TreeMap<String, String> committed = new TreeMap<String, String>(expected);
+		dict.open();
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String[] words = randomStrings(MAX_SIZE, MAX_LEN / 2);
+			String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+			fillMap(expected, words, defs);
+			fillMap(dict, words, defs);
+			assertTrue("Too many modified pages in memory: " + dict.getDirtyPageCount(), dict.getDirtyPageCount() <= 4);
+		}
+		testEquality("In-memory recall with pages written out", expected, dict);
+
+		dict.open(); // Undo the changes, including those written out
+		testEquality("Recall after undoing written-out changes", committed, dict);
+
+		dict.clear();
+		fillMap(dict, addWords, addDefs);
+		dict.close();
+		dict.open();
+		TreeMap<String, String> added = new TreeMap<String, String>();
+		fillMap(added, addWords, addDefs);
+		testEquality("Recall after clearing", added, dict);
+		dict.close();
+		dictFile.delete();
+		BloomFilter.fileFor(dictFile).delete();
+	}
+
+	/**
+	 * Check that lookups of missing keys are still answered correctly after a
+	 * reopen, and that the Bloom filter answers almost all of them.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void bloomFilterTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		BTreeDictionary dict = (BTreeDictionary) getDictionary(dictFile);
+		dict.open();
+		String[] words = randomStrings(MAX_SIZE, MAX_LEN);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, words, defs);
+		fillMap(dict, words, defs);
+		dict.close();
+
+		dict = (BTreeDictionary) getDictionary(dictFile);
+		dict.open();
+		String[] missing = randomStrings(MAX_SIZE, MAX_LEN);
+		for (String key : missing) {
+			assertEquals(expected.containsKey(key), dict.containsKey(key));
+			assertEquals(expected.get(key), dict.get(key));
+		}
+		assertTrue("False-positive rate too high: " + dict.getBloomFalsePositiveRate(),
+				dict.getBloomFalsePositiveRate() < 0.05);
+		dict.close();
+		dictFile.delete();
+		BloomFilter.fileFor(dictFile).delete();
+	}
+}
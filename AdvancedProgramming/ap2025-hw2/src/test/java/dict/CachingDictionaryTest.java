@@ -0,0 +1,54 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachingDictionaryTest extends PersistentDictionaryTest {
+	public final static int CACHE_SIZE = 16;
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		// A small cache, so the tests exercise evictions of unwritten changes
+		return new CachingDictionary(new BTreeDictionary(dictFile), CACHE_SIZE,
+				CachingDictionary.WriteMode.WRITE_BACK);
+	}
+
+	/**
+	 * Check the hit, miss and eviction counters, including cached misses.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void countersTest() throws Exception {
+		dictFile.delete();
+		CachingDictionary dict = (CachingDictionary) getDictionary(dictFile);
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+
+		dict.open();
+		assertEquals(testDefs[0], dict.get(testWords[0]));
+		assertEquals(testDefs[0], dict.get(testWords[0]));
+		assertNull(dict.get("missing"));
+		assertNull(dict.get("missing"));
+		assertEquals(2, dict.getHitCount());
+		assertEquals(2, dict.getMissCount());
+		assertEquals(0.5, dict.getHitRate(), 0);
+		assertEquals(0, dict.getEvictionCount());
+
+		String[] words = randomStrings(2 * CACHE_SIZE, MAX_LEN);
+		for (String word : words) {
+			dict.get(word);
+		}
+		assertTrue("Nothing was evicted", dict.getEvictionCount() > 0);
+		dict.close();
+		dictFile.delete();
+		BloomFilter.fileFor(dictFile).delete();
+	}
+}
@@ -0,0 +1,86 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		// Small blocks, so the tests exercise lookups across many blocks
+		return new CompressedDictionary(dictFile, 4);
+	}
+
+	/**
+	 * Check that a dictionary with shared prefixes and repetitive values is
+	 * stored in less space than the plain text format.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void compressionTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		for (int i = 0; i < NUM_EXTENDED * MAX_SIZE; ++i) {
+			expected.put("prefix/common/word" + i, "a definition of word number " + (i % 100));
+		}
+
+		dictFile.delete();
+		PersistentDictionary dict = new CompressedDictionary(dictFile);
+		dict.open();
+		for (String word : expected.keySet()) {
+			dict.put(word, expected.get(word));
+		}
+		dict.close();
+
+		File textFile = File.createTempFile("DictTest", ".txt");
+		InMemoryDictionary text = new InMemoryDictionary(textFile);
+		text.putAll(expected);
+		text.close();
+		assertTrue("Compressed file is not smaller than the text file", dictFile.length() < textFile.length() / 2);
+		textFile.delete();
+
+		dict = new CompressedDictionary(dictFile);
+		dict.open();
+		testEquality("Compressed recall", expected, dict);
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that lookups of missing keys are still answered correctly after a
+	 * reopen, and that the Bloom filter answers almost all of them.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void bloomFilterTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		CompressedDictionary dict = (CompressedDictionary) getDictionary(dictFile);
+		dict.open();
+		String[] words = randomStrings(MAX_SIZE, MAX_LEN);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, words, defs);
+		fillMap(dict, words, defs);
+		dict.close();
+
+		dict = (CompressedDictionary) getDictionary(dictFile);
+		dict.open();
+		String[] missing = randomStrings(MAX_SIZE, MAX_LEN);
+		for (String key : missing) {
+			assertEquals(expected.containsKey(key), dict.containsKey(key));
+			assertEquals(expected.get(key), dict.get(key));
+		}
+		assertTrue("False-positive rate too high: " + dict.getBloomFalsePositiveRate(),
+				dict.getBloomFalsePositiveRate() < 0.05);
+		dict.close();
+		dictFile.delete();
+		BloomFilter.fileFor(dictFile).delete();
+	}
+}
@@ -0,0 +1,81 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentDictionaryTest extends PersistentDictionaryTest {
+	public final static int NUM_THREADS = 8;
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new ConcurrentDictionary(dictFile);
+	}
+
+	/**
+	 * Hammer the dictionary from several threads while flushing it, then check
+	 * that no update was lost.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void concurrentStressTest() throws Exception {
+		dictFile.delete();
+		final PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+
+		ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+		List<Future<TreeMap<String, String>>> results = new ArrayList<Future<TreeMap<String, String>>>();
+		for (int t = 0; t < NUM_THREADS; ++t) {
+			final String prefix = "t" + t + "-"; // Each thread owns its own keys
+			final Random threadRnd = new Random(rnd.nextLong());
+			results.add(pool.submit(new Callable<TreeMap<String, String>>() {
+				@Override
+				public TreeMap<String, String> call() {
+					TreeMap<String, String> expected = new TreeMap<String, String>();
+					for (int i = 0; i < NUM_EXTENDED * MAX_SIZE; ++i) {
+						String key = prefix + threadRnd.nextInt(MAX_SIZE);
+						if (threadRnd.nextDouble() < 0.2) {
+							assertEquals(expected.remove(key), dict.remove(key));
+						} else {
+							String value = Integer.toString(i);
+							assertEquals(expected.put(key, value), dict.put(key, value));
+						}
+						assertEquals(expected.get(key), dict.get(key));
+					}
+					return expected;
+				}
+			}));
+		}
+
+		// Flush repeatedly while the workers are running
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			dict.close();
+		}
+
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		for (Future<TreeMap<String, String>> result : results) {
+			expected.putAll(result.get());
+		}
+		pool.shutdown();
+		testEquality("Concurrent updates", expected, dict);
+		dict.close();
+
+		PersistentDictionary reopened = getDictionary(dictFile);
+		reopened.open();
+		testEquality("Persistent concurrent updates", expected, reopened);
+		reopened.close();
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,60 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertFalse;
+
+public class DurableInMemoryDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		InMemoryDictionary dict = new InMemoryDictionary(dictFile);
+		dict.setDurableFlush(true);
+		return dict;
+	}
+
+	/**
+	 * Check that the leftovers of an interrupted flush are discarded, and leave
+	 * the dictionary intact.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void partialFlushTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		fillMap(expected, testWords, testDefs);
+
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+
+		// A flush that crashed half-way through the temporary file
+		File tmp = DictionaryFiles.tempFileFor(dictFile);
+		try (Writer writer = new FileWriter(tmp)) {
+			writer.write("Partial:defin");
+		}
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		assertFalse("Partial flush was not discarded", tmp.exists());
+		testEquality("Recall after partial flush", expected, dict);
+
+		fillMap(expected, addWords, addDefs);
+		fillMap(dict, addWords, addDefs);
+		dict.close();
+		assertFalse("Temporary file left after flush", tmp.exists());
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		testEquality("Recall after durable flush", expected, dict);
+		dict.close();
+		dictFile.delete();
+	}
+}
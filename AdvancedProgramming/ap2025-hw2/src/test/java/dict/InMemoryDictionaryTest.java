@@ -1,12 +1,37 @@
 package dict;
 
 
+import org.junit.Test;
+
 import java.io.File;
 import java.io.IOException;
 
+import static org.junit.Assert.assertFalse;
+
 public class InMemoryDictionaryTest extends PersistentDictionaryTest {
 	@Override
     PersistentDictionary getDictionary(File file) throws IOException {
 		return new InMemoryDictionary(dictFile);
 	}
+
+	/**
+	 * Check that closing an unchanged dictionary doesn't write the file.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void cleanCloseTest() throws Exception {
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		dict.get(testWords[0]);
+		dictFile.delete();
+		dict.close();
+		assertFalse("Unchanged dictionary was written", dictFile.exists());
+	}
 }
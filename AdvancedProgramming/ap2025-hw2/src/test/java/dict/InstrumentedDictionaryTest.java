@@ -0,0 +1,179 @@
+package dict;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new InstrumentedDictionary(new InMemoryDictionary(dictFile), dictFile);
+	}
+
+	/**
+	 * Check the operation counts, the bytes read and written, the listener
+	 * callbacks and the JMX attributes.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void metricsTest() throws Exception {
+		dictFile.delete();
+		InstrumentedDictionary dict = (InstrumentedDictionary) getDictionary(dictFile);
+		final AtomicInteger operations = new AtomicInteger();
+		final AtomicInteger flushedEntries = new AtomicInteger();
+		dict.addListener(new DictionaryListener() {
+			@Override
+			public void operationCompleted(InstrumentedDictionary.Operation operation, long nanos) {
+				operations.incrementAndGet();
+			}
+
+			@Override
+			public void flushed(long nanos, long bytesWritten, int entries) {
+				flushedEntries.set(entries);
+			}
+		});
+
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.get(testWords[0]);
+		dict.remove("missing");
+		dict.close();
+
+		assertEquals(testWords.length, dict.getPutCount());
+		assertEquals(1, dict.getGetCount());
+		assertEquals(1, dict.getRemoveCount());
+		assertEquals(1, dict.getFlushCount());
+		assertEquals(testWords.length + 4, operations.get()); // Including open and close
+		assertEquals(testWords.length, flushedEntries.get());
+		assertEquals(dictFile.length(), dict.getBytesWritten());
+		assertEquals(testWords.length, dict.getEntryCount());
+
+		dict.open();
+		assertEquals(dictFile.length(), dict.getBytesRead());
+
+		dict.registerMBean(dictFile.getName());
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("dict:type=PersistentDictionary,name=" + ObjectName.quote(dictFile.getName()));
+			assertEquals((long) testWords.length, server.getAttribute(name, "PutCount"));
+			assertEquals(testWords.length, server.getAttribute(name, "EntryCount"));
+		} finally {
+			dict.unregisterMBean();
+		}
+		long written = dict.getBytesWritten();
+		dict.close(); // Nothing to flush
+		assertEquals("Unchanged dictionary counted as written", written, dict.getBytesWritten());
+		assertEquals("Close without a flush counted", 1, dict.getFlushCount());
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that the bytes read are what a paged dictionary reads, by its open
+	 * and its lookups, rather than the size of its file.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void pagedBytesReadTest() throws Exception {
+		dictFile.delete();
+		InstrumentedDictionary dict = new InstrumentedDictionary(new BTreeDictionary(dictFile, 256, 1), dictFile);
+		final AtomicLong openedBytes = new AtomicLong(-1);
+		dict.addListener(new DictionaryListener() {
+			@Override
+			public void opened(long nanos, long bytesRead, int entries) {
+				openedBytes.set(bytesRead);
+			}
+		});
+		dict.open();
+		for (int i = 0; i < MAX_SIZE; ++i) {
+			dict.put("word" + i, "definition" + i);
+		}
+		dict.close();
+
+		long before = dict.getBytesRead();
+		dict.open();
+		long opened = dict.getBytesRead() - before;
+		assertEquals(opened, openedBytes.get());
+		assertTrue("Open counted as reading the whole file", opened > 0 && opened < dictFile.length());
+		for (int i = 0; i < MAX_SIZE; ++i) {
+			assertEquals("definition" + i, dict.get("word" + i));
+		}
+		assertTrue("Lookup reads not counted", dict.getBytesRead() > before + opened);
+		dict.close();
+
+		dict.reset();
+		assertEquals(0, dict.getBytesRead());
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that only the appended bytes are counted for an append-only log,
+	 * and that closes that write nothing aren't reported as flushes.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void appendedBytesTest() throws Exception {
+		dictFile.delete();
+		InstrumentedDictionary dict = new InstrumentedDictionary(new LogStructuredDictionary(dictFile), dictFile);
+		final AtomicInteger flushes = new AtomicInteger();
+		dict.addListener(new DictionaryListener() {
+			@Override
+			public void flushed(long nanos, long bytesWritten, int entries) {
+				flushes.incrementAndGet();
+			}
+		});
+
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+		long firstLength = dictFile.length();
+		assertEquals(firstLength, dict.getBytesWritten());
+
+		dict.open();
+		dict.close(); // Nothing to flush
+		assertEquals(firstLength, dict.getBytesWritten());
+		assertEquals(1, flushes.get());
+
+		dict.open();
+		fillMap(dict, addWords, addDefs);
+		dict.close();
+		assertEquals("Appended bytes miscounted", dictFile.length(), dict.getBytesWritten());
+		assertEquals(dictFile.length() - firstLength, dict.getLastFlushBytes());
+		assertEquals(2, flushes.get());
+		dictFile.delete();
+	}
+
+	/**
+	 * Check the percentiles of the latency histogram, and that dictionaries aren't
+	 * wrapped unless metrics are enabled.
+	 */
+	@Test
+	public void histogramTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 1000; ++i) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500500, histogram.getMean(), 1e-6);
+		long p50 = histogram.getPercentile(50);
+		assertTrue("Median is off: " + p50, p50 >= 500000 && p50 <= 500000 * 1.125);
+		long p99 = histogram.getPercentile(99);
+		assertTrue("99th percentile is off: " + p99, p99 >= 990000 && p99 <= 1000000);
+
+		PersistentDictionary plain = new InMemoryDictionary(dictFile);
+		assertSame(plain, InstrumentedDictionary.wrap(plain, dictFile));
+	}
+}
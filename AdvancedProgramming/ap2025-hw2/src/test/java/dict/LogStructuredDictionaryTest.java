@@ -0,0 +1,140 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogStructuredDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new LogStructuredDictionary(dictFile);
+	}
+
+	/**
+	 * Check that compaction shrinks the log without losing anything.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void compactionTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		LogStructuredDictionary dict = new LogStructuredDictionary(dictFile, 1);
+		dict.open();
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String[] words = randomStrings(MAX_SIZE, 4); // short words, so many overwrites
+			String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+			fillMap(expected, words, defs);
+			fillMap(dict, words, defs);
+		}
+		dict.close();
+		// Measured by close() before it scheduled the compaction, which may be done already
+		long uncompactedLength = dict.flushedLength();
+		LogStructuredDictionary.awaitCompactions();
+		assertTrue("Log was not compacted", dictFile.length() < uncompactedLength);
+
+		dict = new LogStructuredDictionary(dictFile, 1);
+		dict.open();
+		testEquality("Recall after compaction", expected, dict);
+
+		// Appending after a compaction
+		fillMap(expected, addWords, addDefs);
+		fillMap(dict, addWords, addDefs);
+		dict.close();
+		LogStructuredDictionary.awaitCompactions();
+
+		dict = new LogStructuredDictionary(dictFile, 1);
+		dict.open();
+		testEquality("Recall after appending to a compacted log", expected, dict);
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a rejected put leaves nothing in the log, so the records after
+	 * it survive a reopen.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectedPutTest() throws Exception {
+		dictFile.delete();
+		PersistentDictionary dict = new LogStructuredDictionary(dictFile);
+		dict.open();
+		try {
+			dict.put("k", null);
+			fail("Put of a null value succeeded");
+		} catch (NullPointerException e) {
+			// Expected
+		}
+		try {
+			dict.put(null, "v");
+			fail("Put of a null key succeeded");
+		} catch (NullPointerException e) {
+			// Expected
+		}
+		dict.put("a", "1");
+		dict.close();
+
+		dict = new LogStructuredDictionary(dictFile);
+		dict.open();
+		assertEquals(1, dict.size());
+		assertEquals("1", dict.get("a"));
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Check that a compaction of a log that has since been compacted, and has
+	 * grown past the old length again, leaves it alone rather than splicing it
+	 * at the old length.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void staleCompactionTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		LogStructuredDictionary dict = new LogStructuredDictionary(dictFile, Integer.MAX_VALUE);
+		dict.open();
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String[] words = randomStrings(MAX_SIZE, 4); // short words, so many overwrites
+			String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+			fillMap(expected, words, defs);
+			fillMap(dict, words, defs);
+		}
+		dict.close();
+		LogStructuredDictionary.LogVersion stale = LogStructuredDictionary.version(dictFile);
+
+		LogStructuredDictionary.compact(dictFile, stale);
+		assertTrue("Log was not compacted", dictFile.length() < stale.length);
+
+		// Grow the compacted log past the length of the original one
+		dict.open();
+		while (dictFile.length() <= stale.length) {
+			String[] words = randomStrings(MAX_SIZE, MAX_LEN);
+			String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+			fillMap(expected, words, defs);
+			fillMap(dict, words, defs);
+			dict.close();
+		}
+		long length = dictFile.length();
+
+		LogStructuredDictionary.compact(dictFile, stale);
+		assertEquals("Stale compaction changed the log", length, dictFile.length());
+
+		dict = new LogStructuredDictionary(dictFile);
+		dict.open();
+		testEquality("Recall after a stale compaction", expected, dict);
+		dict.close();
+		dictFile.delete();
+	}
+}
@@ -0,0 +1,173 @@
+package dict;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class MappedSnapshotDictionaryTest {
+	public final static int NUM_EXTENDED = 32; // number of extended tests
+	public final static int MAX_SIZE = 257; // maximum number of definitions.
+	public final static int MAX_LEN = 20; // maximum length of word/definition
+	// Includes multi-byte and supplementary characters, whose UTF-8 order differs from String order
+	public final static String[] CHARS = { "a", "b", "Z", ":", " ", "\u00e9", "\u05d0", "\uffe0", "\ud83d\ude00" };
+
+	Random rnd;
+	File snapshotFile;
+
+	@Before
+	public void setup() throws IOException {
+		rnd = new Random(23); // Fixed seed so tests will be repeatable.
+		snapshotFile = File.createTempFile("SnapshotTest", ".tmp");
+	}
+
+	String randomString() {
+		StringBuilder str = new StringBuilder();
+		int len = rnd.nextInt(MAX_LEN);
+		for (int i = 0; i < len; ++i) {
+			str.append(CHARS[rnd.nextInt(CHARS.length)]);
+		}
+		return str.toString();
+	}
+
+	@Test
+	public void exportAndLookupTest() throws IOException {
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			Map<String, String> expected = new HashMap<String, String>();
+			int numWords = rnd.nextInt(MAX_SIZE);
+			for (int j = 0; j < numWords; ++j) {
+				expected.put(randomString(), randomString());
+			}
+			MappedSnapshotDictionary.export(expected, snapshotFile);
+
+			PersistentDictionary dict = new MappedSnapshotDictionary(snapshotFile);
+			dict.open();
+			assertEquals("Snapshot has the wrong size", expected.size(), dict.size());
+			for (Map.Entry<String, String> entry : expected.entrySet()) {
+				assertEquals("Recall failed for key " + entry.getKey(), entry.getValue(), dict.get(entry.getKey()));
+			}
+			for (int j = 0; j < numWords; ++j) {
+				String word = randomString();
+				assertEquals("Wrong lookup for key " + word, expected.containsKey(word), dict.containsKey(word));
+			}
+			dict.close();
+		}
+		snapshotFile.delete();
+	}
+
+	/**
+	 * Check range and prefix scans, whose bounds are compared with the UTF-8 keys in the snapshot.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void rangeScanTest() throws IOException {
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			TreeMap<String, String> expected = new TreeMap<String, String>();
+			int numWords = rnd.nextInt(MAX_SIZE);
+			for (int j = 0; j < numWords; ++j) {
+				expected.put(randomString(), randomString());
+			}
+			MappedSnapshotDictionary.export(expected, snapshotFile);
+
+			PersistentDictionary dict = new MappedSnapshotDictionary(snapshotFile);
+			dict.open();
+			String from = randomString();
+			String to = randomString();
+			SortedMap<String, String> range = from.compareTo(to) < 0 ? expected.subMap(from, to)
+					: new TreeMap<String, String>();
+			assertScan(range, dict.range(from, to));
+			assertScan(expected.tailMap(from), dict.range(from, null));
+			assertScan(expected.headMap(to), dict.range(null, to));
+
+			String prefix = from.length() > 2 ? from.substring(0, 2) : from;
+			TreeMap<String, String> prefixed = new TreeMap<String, String>();
+			for (Map.Entry<String, String> entry : expected.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					prefixed.put(entry.getKey(), entry.getValue());
+				}
+			}
+			assertScan(prefixed, dict.prefixScan(prefix));
+			dict.close();
+		}
+		snapshotFile.delete();
+		BloomFilter.fileFor(snapshotFile).delete();
+	}
+
+	void assertScan(SortedMap<String, String> expected, Iterator<Map.Entry<String, String>> scan) {
+		for (Map.Entry<String, String> entry : expected.entrySet()) {
+			assertTrue("Scan ended before key " + entry.getKey(), scan.hasNext());
+			assertEquals(entry, scan.next());
+		}
+		assertFalse("Scan returned extra keys", scan.hasNext());
+	}
+
+	@Test
+	public void emptySnapshotTest() throws IOException {
+		snapshotFile.delete();
+		PersistentDictionary dict = new MappedSnapshotDictionary(snapshotFile);
+		dict.open();
+		assertEquals(0, dict.size());
+		assertNull(dict.get("missing"));
+
+		MappedSnapshotDictionary.export(new HashMap<String, String>(), snapshotFile);
+		dict.open();
+		assertEquals(0, dict.size());
+		assertFalse(dict.containsKey(""));
+		dict.close();
+		snapshotFile.delete();
+	}
+
+	/**
+	 * Check that exporting over a snapshot that is mapped leaves the mapping
+	 * reading the old snapshot, and leaves no temporary files behind.
+	 */
+	@Test
+	public void reexportWhileMappedTest() throws IOException {
+		Map<String, String> oldEntries = new HashMap<String, String>();
+		for (int j = 0; j < MAX_SIZE; ++j) {
+			oldEntries.put(randomString(), randomString());
+		}
+		MappedSnapshotDictionary.export(oldEntries, snapshotFile);
+		PersistentDictionary oldDict = new MappedSnapshotDictionary(snapshotFile);
+		oldDict.open();
+
+		Map<String, String> newEntries = new HashMap<String, String>();
+		newEntries.put("word", "def");
+		MappedSnapshotDictionary.export(newEntries, snapshotFile);
+
+		assertEquals("Mapped snapshot changed size", oldEntries.size(), oldDict.size());
+		for (Map.Entry<String, String> entry : oldEntries.entrySet()) {
+			assertEquals("Recall failed for key " + entry.getKey(), entry.getValue(), oldDict.get(entry.getKey()));
+		}
+		oldDict.close();
+
+		PersistentDictionary newDict = new MappedSnapshotDictionary(snapshotFile);
+		newDict.open();
+		assertEquals(1, newDict.size());
+		assertEquals("def", newDict.get("word"));
+		newDict.close();
+
+		String[] leftovers = snapshotFile.getAbsoluteFile().getParentFile()
+				.list((dir, name) -> name.startsWith(snapshotFile.getName()) && name.endsWith(".tmp")
+						&& !name.equals(snapshotFile.getName()));
+		assertEquals("Temporary files left behind", 0, leftovers.length);
+		snapshotFile.delete();
+		BloomFilter.fileFor(snapshotFile).delete();
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void readOnlyTest() throws IOException {
+		PersistentDictionary dict = new MappedSnapshotDictionary(snapshotFile);
+		dict.put("word", "def");
+	}
+}
@@ -0,0 +1,76 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapDictionaryTest extends PersistentDictionaryTest {
+	// Includes multi-byte and supplementary characters, whose UTF-8 order differs from String order
+	public final static String[] UNICODE = { "a", "b", "Z", " ", "\u00e9", "\u05d0", "\uffe0", "\ud83d\ude00" };
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		// Small arenas and tail, so the tests exercise merges and compactions
+		return new OffHeapDictionary(dictFile, 4096, 8);
+	}
+
+	String randomUnicode() {
+		StringBuilder str = new StringBuilder();
+		int len = rnd.nextInt(8);
+		for (int i = 0; i < len; ++i) {
+			str.append(UNICODE[rnd.nextInt(UNICODE.length)]);
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Check that keys stored as UTF-8 bytes still sort in String order, through
+	 * merges of the tail and replacements of values.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void unicodeOrderTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		OffHeapDictionary dict = (OffHeapDictionary) getDictionary(dictFile);
+		dict.clear();
+		for (int i = 0; i < MAX_SIZE * 4; ++i) {
+			String key = randomUnicode();
+			String value = randomUnicode();
+			if (rnd.nextDouble() < 0.2) {
+				assertEquals("Remove failed for key " + key, expected.remove(key), dict.remove(key));
+			} else {
+				assertEquals("Put failed for key " + key, expected.put(key, value), dict.put(key, value));
+			}
+		}
+		testEquality("Unicode keys", expected, dict);
+		testScan("Unicode scan", expected, dict.range(null, null));
+		assertTrue("No arenas allocated", dict.getOffHeapBytes() > 0);
+	}
+
+	/**
+	 * Check that arenas start small and grow geometrically up to the arena size.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void arenaGrowthTest() throws Exception {
+		OffHeapDictionary dict = new OffHeapDictionary(dictFile);
+		dict.clear();
+		fillMap(dict, testWords, testDefs);
+		assertEquals("A few entries took a large arena", OffHeapDictionary.INITIAL_ARENA_SIZE, dict.getOffHeapBytes());
+
+		dict = new OffHeapDictionary(dictFile, 1 << 16, 8);
+		dict.clear();
+		for (int i = 0; dict.getOffHeapBytes() < 1 << 18; ++i) {
+			dict.put("key" + i, "value" + i);
+		}
+		// 4K, 8K, 16K, 32K, and then 64K arenas
+		assertEquals(0, (dict.getOffHeapBytes() - (1 << 16) + OffHeapDictionary.INITIAL_ARENA_SIZE) % (1 << 16));
+	}
+}
@@ -0,0 +1,139 @@
+package dict;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelDictionaryLoaderTest {
+	public final static int NUM_EXTENDED = 32; // number of extended tests
+	public final static int MAX_SIZE = 257; // maximum number of lines
+	public final static int MAX_LEN = 20; // maximum length of word/definition
+	public final static char[] CHARS = "abcAB:: \t12".toCharArray();
+	public final static String[] LINE_BREAKS = { "\n", "\r\n", "\r" };
+
+	Random rnd;
+	File dictFile;
+
+	@Before
+	public void setup() throws IOException {
+		rnd = new Random(31); // Fixed seed so tests will be repeatable.
+		dictFile = File.createTempFile("LoaderTest", ".tmp");
+	}
+
+	String randomString() {
+		char[] chars = new char[rnd.nextInt(MAX_LEN)];
+		for (int i = 0; i < chars.length; ++i) {
+			chars[i] = CHARS[rnd.nextInt(CHARS.length)];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Write a random dictionary file with repeated keys, empty lines and mixed line breaks.
+	 */
+	void writeRandomFile(File file) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			int numLines = rnd.nextInt(MAX_SIZE);
+			for (int i = 0; i < numLines; ++i) {
+				writer.write(randomString());
+				writer.write(LINE_BREAKS[rnd.nextInt(LINE_BREAKS.length)]);
+			}
+			if (rnd.nextBoolean()) {
+				writer.write(randomString()); // No line break at the end
+			}
+		}
+	}
+
+	@Test
+	public void matchesSequentialLoadTest() throws IOException {
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			writeRandomFile(dictFile);
+			InMemoryDictionary expected = new InMemoryDictionary(dictFile);
+			expected.open();
+
+			long rangeSize = rnd.nextInt(64) + 1; // Tiny ranges, so lines are split between many threads
+			Map<String, String> actual = ParallelDictionaryLoader.load(Arrays.asList(dictFile), 4, rangeSize);
+			assertEquals("Parallel load differs from sequential load", expected, new TreeMap<String, String>(actual));
+		}
+		dictFile.delete();
+	}
+
+	@Test
+	public void laterFilesWinTest() throws IOException {
+		List<File> files = new ArrayList<File>();
+		InMemoryDictionary expected = new InMemoryDictionary(dictFile);
+		for (int i = 0; i < 4; ++i) {
+			File file = File.createTempFile("LoaderTest", ".tmp");
+			writeRandomFile(file);
+			InMemoryDictionary part = new InMemoryDictionary(file);
+			part.open();
+			expected.putAll(part);
+			files.add(file);
+		}
+
+		Map<String, String> actual = ParallelDictionaryLoader.load(files, 3, 16);
+		assertEquals("Parallel load of several files failed", expected, new TreeMap<String, String>(actual));
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Check the lookups and range views of a loaded map against a {@link TreeMap}.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void sortedViewsTest() throws IOException {
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			writeRandomFile(dictFile);
+			SortedMap<String, String> actual = ParallelDictionaryLoader.load(Arrays.asList(dictFile), 2, 32);
+			TreeMap<String, String> expected = new TreeMap<String, String>(actual);
+
+			String from = randomString();
+			String to = randomString();
+			if (from.compareTo(to) > 0) {
+				String swap = from;
+				from = to;
+				to = swap;
+			}
+			assertEquals(expected.get(from), actual.get(from));
+			assertEquals(expected.containsKey(to), actual.containsKey(to));
+			assertEquals(expected.subMap(from, to), actual.subMap(from, to));
+			assertEquals(expected.headMap(to), actual.headMap(to));
+			assertEquals(expected.tailMap(from), actual.tailMap(from));
+			assertEquals(expected.headMap(to).tailMap(from), actual.headMap(to).tailMap(from));
+			if (!expected.subMap(from, to).isEmpty()) {
+				assertEquals(expected.subMap(from, to).firstKey(), actual.subMap(from, to).firstKey());
+				assertEquals(expected.subMap(from, to).lastKey(), actual.subMap(from, to).lastKey());
+			}
+		}
+		dictFile.delete();
+	}
+
+	@Test
+	public void dictionaryParallelOpenTest() throws IOException {
+		writeRandomFile(dictFile);
+		InMemoryDictionary expected = new InMemoryDictionary(dictFile);
+		expected.open();
+
+		InMemoryDictionary actual = new InMemoryDictionary(dictFile);
+		actual.setLoadParallelism(4);
+		actual.open();
+		assertEquals("Parallel open differs from sequential open", expected, actual);
+		dictFile.delete();
+	}
+}
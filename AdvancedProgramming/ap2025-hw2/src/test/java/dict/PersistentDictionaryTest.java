@@ -7,12 +7,19 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test a persistent dictionary.
@@ -482,4 +489,128 @@ public abstract class PersistentDictionaryTest {
 		testEquality("Multiple add/remove, open/close cycles", expected, dict);
 	}
 
+	/**
+	 * Check that a scan returns exactly the entries of a sorted map, in order.
+	 */
+	void testScan(String msg, SortedMap<String, String> expected,
+			Iterator<Map.Entry<String, String>> scan) {
+		for (Map.Entry<String, String> entry : expected.entrySet()) {
+			assertTrue(msg + ": Scan ended before key " + entry.getKey(), scan.hasNext());
+			Map.Entry<String, String> actual = scan.next();
+			assertEquals(msg + ": Wrong key in scan", entry.getKey(), actual.getKey());
+			assertEquals(msg + ": Wrong value in scan", entry.getValue(), actual.getValue());
+		}
+		assertFalse(msg + ": Scan returned extra keys", scan.hasNext());
+	}
+
+	/**
+	 * Compare range and prefix scans of a map and of a dictionary, over random bounds.
+	 */
+	void testScans(String msg, TreeMap<String, String> map,
+			PersistentDictionary dict) {
+		testScan(msg + ": full range", map, dict.range(null, null));
+		testScan(msg + ": empty prefix", map, dict.prefixScan(""));
+		for (int i = 0; i < NUM_EXTENDED; ++i) {
+			String[] bounds = randomStrings(2, 4);
+			String from = bounds[0];
+			String to = bounds[1];
+			SortedMap<String, String> range = from.compareTo(to) < 0 ? map.subMap(from, to)
+					: new TreeMap<String, String>();
+			testScan(msg + ": range [" + from + ", " + to + ")", range, dict.range(from, to));
+			testScan(msg + ": range from " + from, map.tailMap(from), dict.range(from, null));
+			testScan(msg + ": range to " + to, map.headMap(to), dict.range(null, to));
+
+			String prefix = bounds[0].length() > 1 ? bounds[0].substring(0, 1) : bounds[0];
+			TreeMap<String, String> prefixed = new TreeMap<String, String>();
+			for (Map.Entry<String, String> entry : map.entrySet()) {
+				if (entry.getKey().startsWith(prefix)) {
+					prefixed.put(entry.getKey(), entry.getValue());
+				}
+			}
+			testScan(msg + ": prefix " + prefix, prefixed, dict.prefixScan(prefix));
+		}
+	}
+
+	/**
+	 * Check range and prefix scans, before and after the dictionary is persisted,
+	 * and after further changes.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void rangeScanTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		String[] words = randomStrings(MAX_SIZE, MAX_LEN / 10);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, words, defs);
+		fillMap(dict, words, defs);
+		testScans("In-memory scan", expected, dict);
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		testScans("Persistent scan", expected, dict);
+
+		fillMap(expected, addWords, addDefs);
+		fillMap(dict, addWords, addDefs);
+		for (int i = 0; i < words.length; i += 3) {
+			expected.remove(words[i]);
+			dict.remove(words[i]);
+		}
+		testScans("Combined scan", expected, dict);
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Check batch puts into an empty and a filled dictionary, and batch gets of
+	 * present and missing keys.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void batchTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		for (int i = 0; i < NUM_EXTENDED / 4; ++i) {
+			HashMap<String, String> batch = new HashMap<String, String>(); // Unsorted
+			fillMap(batch, randomStrings(MAX_SIZE * 4, MAX_LEN), randomStrings(MAX_SIZE * 4, MAX_LEN));
+			expected.putAll(batch);
+			dict.putAll(batch);
+			testEquality("Batch put " + i, expected, dict);
+		}
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		testEquality("Persistent batch put", expected, dict);
+
+		List<String> keys = new ArrayList<String>();
+		for (String key : expected.keySet()) {
+			if (rnd.nextDouble() < 0.5) {
+				keys.add(key);
+			}
+		}
+		for (String key : randomStrings(MAX_SIZE, MAX_LEN)) {
+			keys.add(key);
+		}
+		Map<String, String> found = dict.getAll(keys);
+		int present = 0;
+		for (String key : keys) {
+			assertEquals("Batch get failed for key " + key, expected.get(key), found.get(key));
+			if (expected.containsKey(key)) {
+				++present;
+			}
+		}
+		assertTrue("Batch get returned missing keys", found.size() <= present);
+		dict.close();
+		dictFile.delete();
+	}
 }
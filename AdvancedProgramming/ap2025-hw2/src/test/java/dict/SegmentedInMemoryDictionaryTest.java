@@ -0,0 +1,170 @@
+package dict;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentedInMemoryDictionaryTest extends PersistentDictionaryTest {
+	public final static int SEGMENT_SIZE = 8;
+
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		return new InMemoryDictionary(dictFile, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Return the names of the segment files listed in the manifest.
+	 */
+	Set<String> segmentFiles() throws IOException {
+		List<String> lines = Files.readAllLines(dictFile.toPath());
+		assertEquals("Dictionary file is not a manifest", InMemoryDictionary.MANIFEST_MARKER, lines.get(0));
+		Set<String> files = new HashSet<String>();
+		for (String line : lines.subList(1, lines.size())) {
+			files.add(line.split(":", 2)[0]);
+		}
+		return files;
+	}
+
+	/**
+	 * Check that a flush rewrites only the segments that changed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void incrementalFlushTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		String[] words = randomStrings(MAX_SIZE, MAX_LEN);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, words, defs);
+
+		dictFile.delete();
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		fillMap(dict, words, defs);
+		dict.close();
+		Set<String> before = segmentFiles();
+		assertTrue("Dictionary was not split into segments", before.size() > 1);
+
+		// A clean flush changes nothing
+		dict = getDictionary(dictFile);
+		dict.open();
+		dict.close();
+		assertEquals("Clean flush rewrote segments", before, segmentFiles());
+
+		// Changing one key rewrites one segment
+		dict = getDictionary(dictFile);
+		dict.open();
+		expected.put(words[0], "changed");
+		dict.put(words[0], "changed");
+		dict.close();
+		Set<String> after = segmentFiles();
+		Set<String> kept = new HashSet<String>(before);
+		kept.retainAll(after);
+		assertEquals("Wrong number of segments rewritten", before.size() - 1, kept.size());
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		testEquality("Recall after incremental flush", expected, dict);
+		dict.close();
+	}
+
+	/**
+	 * Check that a dictionary in the single-file format is converted to segments.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void convertFormatTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		fillMap(expected, testWords, testDefs);
+
+		dictFile.delete();
+		PersistentDictionary dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		fillMap(dict, testWords, testDefs);
+		dict.close();
+
+		dict = getDictionary(dictFile);
+		dict.open();
+		dict.close();
+		assertTrue("Dictionary was not converted to segments", segmentFiles().size() > 0);
+
+		dict = new InMemoryDictionary(dictFile);
+		dict.open();
+		testEquality("Recall after converting to segments", expected, dict);
+		dict.close();
+		dictFile.delete();
+	}
+
+	/**
+	 * Return the names of this dictionary's segment files in its directory.
+	 */
+	Set<String> segmentFilesOnDisk() {
+		Set<String> files = new HashSet<String>();
+		for (String name : dictFile.getAbsoluteFile().getParentFile().list()) {
+			if (name.startsWith(dictFile.getName() + ".") && name.endsWith(".seg")) {
+				files.add(name);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Check that a failed flush deletes the segments it wrote, and that open()
+	 * deletes segments the manifest doesn't list.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void straySegmentsTest() throws Exception {
+		TreeMap<String, String> expected = new TreeMap<String, String>();
+		dictFile.delete();
+
+		PersistentDictionary dict = getDictionary(dictFile);
+		dict.open();
+		String[] words = randomStrings(MAX_SIZE, MAX_LEN);
+		String[] defs = randomStrings(MAX_SIZE, MAX_LEN);
+		fillMap(expected, words, defs);
+		fillMap(dict, words, defs);
+		dict.close();
+		Set<String> listed = segmentFiles();
+
+		// Make the manifest unwritable, so the next flush fails after writing its segments
+		dict.open();
+		fillMap(dict, addWords, addDefs);
+		File manifestTemp = new File(dictFile.getPath() + ".manifest");
+		assertTrue(manifestTemp.mkdir());
+		try {
+			dict.close();
+			fail("Flush with an unwritable manifest succeeded");
+		} catch (IOException e) {
+			// Expected
+		} finally {
+			manifestTemp.delete();
+		}
+		assertEquals("Failed flush left segments behind", listed, segmentFilesOnDisk());
+
+		// A segment left by a crash
+		File stray = new File(dictFile.getAbsoluteFile().getParentFile(), dictFile.getName() + ".12345.seg");
+		Files.write(stray.toPath(), "stray:segment".getBytes());
+		dict.open();
+		assertEquals("Stray segment not deleted", listed, segmentFilesOnDisk());
+		testEquality("Recall after deleting stray segments", expected, dict);
+		dict.clear();
+		dict.close();
+		for (String name : segmentFilesOnDisk()) {
+			new File(dictFile.getAbsoluteFile().getParentFile(), name).delete();
+		}
+		dictFile.delete();
+	}
+}
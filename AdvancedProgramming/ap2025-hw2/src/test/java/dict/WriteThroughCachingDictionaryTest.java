@@ -0,0 +1,13 @@
+package dict;
+
+import java.io.File;
+import java.io.IOException;
+
+public class WriteThroughCachingDictionaryTest extends PersistentDictionaryTest {
+	@Override
+	PersistentDictionary getDictionary(File file) throws IOException {
+		// Weighed by size, with room for just a few entries
+		return new CachingDictionary(new BTreeDictionary(dictFile), 4 * MAX_LEN, CachingDictionary.CHARS,
+				CachingDictionary.WriteMode.WRITE_THROUGH);
+	}
+}
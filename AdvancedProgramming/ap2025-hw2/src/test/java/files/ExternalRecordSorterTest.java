@@ -0,0 +1,146 @@
+package files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ExternalRecordSorterTest {
+	public final static int NUM_RECORDS = 5000;
+
+	Random rnd;
+	File tempDir;
+
+	@Before
+	public void setup() throws IOException {
+		rnd = new Random(7); // Fixed seed so tests will be repeatable.
+		tempDir = File.createTempFile("sortRuns", "");
+		tempDir.delete();
+		tempDir.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		tempDir.delete();
+	}
+
+	/**
+	 * Sort random records of a given width with a given memory budget, and check
+	 * the result against an in-memory sort, and that no spill files are left behind.
+	 *
+	 * @throws IOException
+	 */
+	void checkSort(int width, int numRecords, long memoryBudget) throws IOException {
+		checkSort(width, numRecords, memoryBudget, 1);
+	}
+
+	void checkSort(int width, int numRecords, long memoryBudget, int parallelism) throws IOException {
+		File temp = File.createTempFile("sortRecords", "byt");
+		try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+			byte[] origBytes = new byte[numRecords * width];
+			rnd.nextBytes(origBytes);
+			file.write(origBytes);
+
+			new ExternalRecordSorter(width, memoryBudget, tempDir, parallelism).sort(file.getChannel());
+
+			byte[] actualBytes = new byte[origBytes.length];
+			file.seek(0);
+			file.readFully(actualBytes);
+			assertArrayEquals("Sort of " + numRecords + " " + width + "-byte records with a budget of "
+					+ memoryBudget + " on " + parallelism + " threads failed", sortRecords(origBytes, width), actualBytes);
+		} finally {
+			temp.delete();
+		}
+		assertEquals("Spill files left behind", 0, tempDir.list().length);
+	}
+
+	/**
+	 * Sort records as unsigned big-endian numbers, as byte arrays compared lexicographically.
+	 */
+	static byte[] sortRecords(byte[] bytes, int width) {
+		byte[][] records = new byte[bytes.length / width][];
+		for (int i = 0; i < records.length; ++i) {
+			records[i] = Arrays.copyOfRange(bytes, i * width, (i + 1) * width);
+		}
+		Arrays.sort(records, Arrays::compareUnsigned);
+		byte[] sorted = new byte[bytes.length];
+		for (int i = 0; i < records.length; ++i) {
+			System.arraycopy(records[i], 0, sorted, i * width, width);
+		}
+		return sorted;
+	}
+
+	@Test
+	public void testInMemory() throws IOException {
+		for (int width = 1; width <= 8; ++width) {
+			checkSort(width, NUM_RECORDS, ExternalRecordSorter.DEFAULT_MEMORY_BUDGET);
+		}
+	}
+
+	@Test
+	public void testSpilled() throws IOException {
+		// About 10 runs, merged at once
+		for (int width : new int[] { 3, 5, 8 }) {
+			checkSort(width, NUM_RECORDS, NUM_RECORDS / 10 * 8);
+		}
+	}
+
+	@Test
+	public void testMultiPassMerge() throws IOException {
+		// Runs of 32 records, merged two at a time
+		for (int width : new int[] { 1, 3, 5, 8 }) {
+			checkSort(width, NUM_RECORDS, 256);
+			checkSort(width, 33, 256);
+		}
+	}
+
+	@Test
+	public void testParallel() throws IOException {
+		for (int width : new int[] { 1, 3, 8 }) {
+			// Sorted in slices
+			checkSort(width, 50000, ExternalRecordSorter.DEFAULT_MEMORY_BUDGET, 4);
+			// Spilled in parallel, merged at once
+			checkSort(width, NUM_RECORDS, NUM_RECORDS / 10 * 8, 3);
+			// Spilled and merged in parallel, then merged at once
+			checkSort(width, NUM_RECORDS, 512, 4);
+		}
+	}
+
+	@Test
+	public void testSortTriBytesWithBudget() throws IOException {
+		File temp = File.createTempFile("sortTriBytes", "byt");
+		try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+			byte[] origBytes = new byte[3 * NUM_RECORDS];
+			rnd.nextBytes(origBytes);
+			file.write(origBytes);
+
+			RandomAccess.sortTriBytes(file, 1024);
+
+			byte[] actualBytes = new byte[origBytes.length];
+			file.seek(0);
+			file.readFully(actualBytes);
+			assertArrayEquals(sortRecords(origBytes, 3), actualBytes);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPartialRecord() throws IOException {
+		File temp = File.createTempFile("sortRecords", "byt");
+		try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+			file.write(new byte[11]);
+			new ExternalRecordSorter(5).sort(file.getChannel());
+		} finally {
+			temp.delete();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.assertEquals;
+
+public class MappedBitReaderTest {
+    final static int MAP_SIZE = 1021; // Not a whole number of words
+    final static int NUM_READS = 20000;
+
+    Random rand;
+    byte[] bytes;
+    FileChannel map = null;
+    Path mapFileName = null;
+
+    @Before
+    public void setup() throws IOException {
+        rand = new Random(103);
+        bytes = new byte[MAP_SIZE];
+        rand.nextBytes(bytes);
+        mapFileName = Files.createTempFile("map-", ".bin");
+        map = FileChannel.open(mapFileName, WRITE, READ);
+        map.write(ByteBuffer.wrap(bytes));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        map.close();
+        Files.delete(mapFileName);
+    }
+
+    /**
+     * Read a field a bit at a time.
+     */
+    long naiveRead(long bitIndex, int bits) {
+        long value = 0;
+        for (long i = bitIndex; i < bitIndex + bits; ++i) {
+            int bit = i / 8 < bytes.length ? (bytes[(int) (i / 8)] >>> (7 - i % 8)) & 1 : 0;
+            value = (value << 1) | bit;
+        }
+        return value;
+    }
+
+    /**
+     * Read random fields, including ones that straddle words and segments, and ones
+     * past the end of the file, with segments of 8 bytes, 64 bytes, and the default.
+     */
+    @Test
+    public void testRandomReads() throws IOException {
+        for (MappedBitReader reader : new MappedBitReader[] {new MappedBitReader(map, 3),
+                new MappedBitReader(map, 6), new MappedBitReader(map)}) {
+            assertEquals(MAP_SIZE * 8L, reader.bitLength());
+            for (int i = 0; i < NUM_READS; ++i) {
+                long bitIndex = rand.nextInt(MAP_SIZE * 8 + 100);
+                int bits = 1 + rand.nextInt(64);
+                assertEquals("Failed reading " + bits + " bits at " + bitIndex,
+                        naiveRead(bitIndex, bits), reader.read(bitIndex, bits));
+            }
+            assertEquals(0, reader.read(1L << 40, 48));
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        map.truncate(0);
+        MappedBitReader reader = new MappedBitReader(map);
+        assertEquals(0, reader.bitLength());
+        assertEquals(0, reader.read(5, 48));
+    }
+}
@@ -0,0 +1,75 @@
+package files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MarkMatcherTest {
+    public final static int NUM_EXTENDED = 200; // number of random tests
+
+    Random rnd;
+
+    @Before
+    public void setup() {
+        rnd = new Random(11); // Fixed seed so tests will be repeatable.
+    }
+
+    /**
+     * A random string over a tiny alphabet, so that marks overlap themselves and each other.
+     */
+    String randomString(int len, String alphabet) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < len; ++i) {
+            s.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+        }
+        return s.toString();
+    }
+
+    /**
+     * Feed random texts to matchers of random marks, and check at every char that
+     * the reported mark is the longest one the text ends with.
+     */
+    @Test
+    public void testAgainstNaive() {
+        for (int i = 0; i < NUM_EXTENDED; ++i) {
+            String alphabet = rnd.nextBoolean() ? "ab" : "ab\u00e9\u4e2d";
+            String[] marks = new String[1 + rnd.nextInt(4)];
+            for (int m = 0; m < marks.length; ++m) {
+                marks[m] = randomString(1 + rnd.nextInt(5), alphabet);
+            }
+            String text = randomString(300, alphabet + "x");
+
+            MarkMatcher matcher = new MarkMatcher(marks);
+            for (int j = 1; j <= text.length(); ++j) {
+                String seen = text.substring(0, j);
+                int expected = -1;
+                for (int m = 0; m < marks.length; ++m) {
+                    if (seen.endsWith(marks[m]) && (expected < 0 || marks[m].length() > marks[expected].length())) {
+                        expected = m;
+                    }
+                }
+                assertEquals("Marks " + String.join(",", marks) + " after " + seen,
+                        expected, matcher.next(text.charAt(j - 1)));
+            }
+        }
+    }
+
+    @Test
+    public void testReset() {
+        MarkMatcher matcher = new MarkMatcher("abc");
+        matcher.next('a');
+        matcher.next('b');
+        matcher.reset();
+        assertEquals(-1, matcher.next('c'));
+        assertEquals(1, matcher.getMarkCount());
+        assertEquals("abc", matcher.getMark(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyMark() {
+        new MarkMatcher("a", "");
+    }
+}
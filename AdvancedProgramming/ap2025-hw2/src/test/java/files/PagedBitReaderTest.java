@@ -0,0 +1,91 @@
+package files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.assertEquals;
+
+public class PagedBitReaderTest {
+    final static int MAP_SIZE = 1021; // Not a whole number of pages
+    final static int NUM_READS = 20000;
+
+    Random rand;
+    FileChannel map = null;
+    Path mapFileName = null;
+
+    @Before
+    public void setup() throws IOException {
+        rand = new Random(107);
+        byte[] bytes = new byte[MAP_SIZE];
+        rand.nextBytes(bytes);
+        mapFileName = Files.createTempFile("map-", ".bin");
+        map = FileChannel.open(mapFileName, WRITE, READ);
+        map.write(ByteBuffer.wrap(bytes));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        map.close();
+        Files.delete(mapFileName);
+    }
+
+    /**
+     * Read random fields, including ones that straddle pages and ones past the end
+     * of the file, with various page sizes and cache sizes (down to a single page,
+     * so that a straddling field evicts the page it started in), and compare them
+     * with the mapped reader's.
+     */
+    @Test
+    public void testRandomReads() throws IOException {
+        MappedBitReader expected = new MappedBitReader(map);
+        int[][] configurations = {{8, 1}, {16, 2}, {64, 4}, {4096, 1}, {PagedBitReader.DEFAULT_PAGE_SIZE, 8}};
+        for (int[] configuration : configurations) {
+            PagedBitReader reader = new PagedBitReader(map, configuration[0], configuration[1]);
+            assertEquals(expected.bitLength(), reader.bitLength());
+            for (int i = 0; i < NUM_READS; ++i) {
+                long bitIndex = rand.nextInt(MAP_SIZE * 8 + 100);
+                int bits = 1 + rand.nextInt(64);
+                assertEquals("Failed reading " + bits + " bits at " + bitIndex + " with pages of "
+                                + configuration[0] + " bytes, " + configuration[1] + " cached",
+                        expected.read(bitIndex, bits), reader.read(bitIndex, bits));
+            }
+            assertEquals(NUM_READS, reader.getReads());
+        }
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        PagedBitReader reader = new PagedBitReader(map, 64, 2);
+
+        // Sequential 48-bit reads: one miss per page, and hits for the rest of its words
+        for (long bit = 0; bit < MAP_SIZE * 8L; bit += 48) {
+            reader.read(bit, 48);
+        }
+        long pages = (MAP_SIZE + 63) / 64;
+        assertEquals(MAP_SIZE * 8 / 48 + 1, reader.getReads());
+        assertEquals(pages, reader.getMisses());
+        assertEquals(MAP_SIZE, reader.getBytesRead());
+        assertEquals((double) reader.getHits() / (reader.getHits() + reader.getMisses()), reader.getHitRatio(), 0);
+
+        // The last two pages are cached. A third one evicts the least recently used
+        reader.resetStats();
+        reader.read(64 * 8 * (pages - 1), 8);
+        reader.read(64 * 8 * (pages - 2), 8);
+        assertEquals(0, reader.getMisses());
+        reader.read(0, 8);
+        reader.read(64 * 8 * (pages - 2), 8);
+        reader.read(64 * 8 * (pages - 1), 8);
+        assertEquals(2, reader.getMisses());
+        assertEquals(64 + MAP_SIZE - 64 * (pages - 1), reader.getBytesRead()); // The last page is partial
+        assertEquals(3.0 / 5, reader.getHitRatio(), 1e-9);
+    }
+}
@@ -9,6 +9,7 @@ import java.io.RandomAccessFile;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 public class RandomAccessTest {
 	public final static int NUM_EXTENDED = 32; // number of extended tests
@@ -75,6 +76,64 @@ public class RandomAccessTest {
 		}
 	}
 
+	/**
+	 * Sort a file larger than the sort buffer, so the counts and the runs of
+	 * equal bytes span several blocks.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSortBytesLarge() throws IOException {
+		checkSortBytesLarge(1);
+	}
+
+	/**
+	 * Sort a large file on several threads, each with a segment of several blocks.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSortBytesParallel() throws IOException {
+		checkSortBytesLarge(2);
+		checkSortBytesLarge(4);
+	}
+
+	void checkSortBytesLarge(int parallelism) throws IOException {
+		File temp = File.createTempFile("sortBytes", "byt");
+		int len = 5 * RandomAccess.BUFFER_SIZE + 17;
+		byte[] origBytes = new byte[len];
+		for (int i = 0; i < len; ++i) {
+			// Skewed, so that some runs are longer than the buffer
+			origBytes[i] = (byte) (rnd.nextBoolean() ? 7 : rnd.nextInt(256));
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+			file.write(origBytes);
+			file.seek(3);
+			RandomAccess.sortBytes(file.getChannel(), parallelism);
+			assertEquals("Sorting must not move the file pointer", 3, file.getFilePointer());
+			assertEquals(len, file.length());
+
+			int[] counts = new int[256];
+			for (byte b : origBytes) {
+				counts[b & 0xff]++;
+			}
+			byte[] sortedBytes = new byte[len];
+			for (int value = 0, j = 0; value < 256; ++value) {
+				for (int k = 0; k < counts[value]; ++k) {
+					sortedBytes[j++] = (byte) value;
+				}
+			}
+
+			byte[] actualBytes = new byte[len];
+			file.seek(0);
+			file.readFully(actualBytes);
+			assertArrayEquals("Sort on " + parallelism + " threads failed", sortedBytes, actualBytes);
+		} finally {
+			temp.delete();
+		}
+	}
+
 	@Test
 	public void testSortTriBytes() throws IOException {
 		File temp = File.createTempFile("sortTriBytes", "byt");
@@ -132,4 +191,59 @@ public class RandomAccessTest {
 
 		}
 	}
+
+	@Test
+	public void testSortTriBytesMapped() throws IOException {
+		File temp = File.createTempFile("sortTriBytes", "byt");
+		try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+			byte[] origBytes = { 0, 1, 5, 4, 3, 2, 10, 20, 30, 1, 2, 3 };
+			file.write(origBytes);
+			RandomAccess.sortTriBytesMapped(file);
+
+			file.seek(0);
+			byte[] sortedBytes = { 0, 1, 5, 1, 2, 3, 4, 3, 2, 10, 20, 30 };
+			byte[] actualBytes = new byte[sortedBytes.length];
+
+			file.readFully(actualBytes);
+			assertArrayEquals(sortedBytes, actualBytes);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Radix-sort random records of every width, in files both smaller and larger
+	 * than the insertion sort threshold, with skewed leading bytes so that some
+	 * buckets need sorting by several bytes.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSortRecordsMappedExtended() throws IOException {
+		for (int width = 1; width <= 8; ++width) {
+			for (int records : new int[] { 1, 2, 31, 1000, 20000 }) {
+				File temp = File.createTempFile("sortRecords", "byt");
+				try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+					byte[] origBytes = new byte[records * width];
+					rnd.nextBytes(origBytes);
+					for (int j = 0; j < origBytes.length; j += width) {
+						if (rnd.nextBoolean()) {
+							origBytes[j] = 42;
+						}
+					}
+					file.write(origBytes);
+
+					RandomAccess.sortRecordsMapped(file, width);
+
+					byte[] actualBytes = new byte[origBytes.length];
+					file.seek(0);
+					file.readFully(actualBytes);
+					assertArrayEquals("Radix sort of " + records + " " + width + "-byte records failed",
+							ExternalRecordSorterTest.sortRecords(origBytes, width), actualBytes);
+				} finally {
+					temp.delete();
+				}
+			}
+		}
+	}
 }
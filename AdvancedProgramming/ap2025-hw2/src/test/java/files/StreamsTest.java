@@ -4,13 +4,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class StreamsTest {
     public final static int NUM_EXTENDED = 32; // number of extended tests
@@ -110,6 +118,111 @@ public class StreamsTest {
     }
 
 
+    /**
+     * Read the quoted bytes of random streams, from both a stream that supports
+     * mark() and one that doesn't, and check that nothing past the closing quote
+     * is consumed.
+     */
+    @Test
+    public void testGetQuotedBytes() throws IOException {
+        for (int i = 0; i < NUM_EXTENDED; ++i) {
+            byte[] bytes = new byte[rnd.nextInt(3 * Streams.BLOCK_SIZE)];
+            rnd.nextBytes(bytes);
+            for (int j = 0; j < bytes.length; ++j) {
+                if (bytes[j] == '"') {
+                    ++bytes[j];
+                }
+            }
+            int quotes = rnd.nextInt(4);
+            for (int q = 0; q < quotes && bytes.length > 0; ++q) {
+                bytes[rnd.nextInt(bytes.length)] = '"';
+            }
+
+            // The expected result, from the boxed version
+            List<Byte> expected = Streams.getQuoted(new ByteArrayInputStream(bytes));
+            for (boolean markable : new boolean[] {true, false}) {
+                InputStream in = new ByteArrayInputStream(bytes);
+                if (!markable) {
+                    in = Channels.newInputStream(Channels.newChannel(in));
+                }
+                ByteBuffer actual = Streams.getQuotedBytes(in);
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+                byte[] actualBytes = new byte[actual.remaining()];
+                actual.get(actualBytes);
+                assertEquals(expected, toList(actualBytes));
+
+                int consumed = indexOfQuote(bytes, indexOfQuote(bytes, 0) + 1) + 1;
+                byte[] rest = in.readAllBytes();
+                assertEquals(consumed == 0 ? 0 : bytes.length - consumed, rest.length);
+            }
+        }
+    }
+
+    @Test
+    public void testGetQuotedByteBuffer() {
+        ByteBuffer buf = ByteBuffer.wrap("a \"first\" b \"\" c \"last".getBytes());
+        assertEquals(ByteBuffer.wrap("first".getBytes()), Streams.getQuoted(buf));
+        assertEquals(ByteBuffer.wrap(new byte[0]), Streams.getQuoted(buf));
+        ByteBuffer last = Streams.getQuoted(buf);
+        assertEquals(ByteBuffer.wrap("last".getBytes()), last);
+        assertEquals(0, buf.remaining());
+        assertNull(Streams.getQuoted(buf));
+
+        // The spans share the buffer's content
+        last.put(0, (byte) 'L');
+        assertEquals('L', buf.get(buf.limit() - 4));
+    }
+
+    @Test
+    public void testQuotedSpans() throws IOException {
+        byte[] bytes = new byte[5 * Streams.BLOCK_SIZE];
+        rnd.nextBytes(bytes);
+        List<byte[]> expected = new ArrayList<>();
+        int pos = 0;
+        for (int j = 0; j < bytes.length; ++j) {
+            if (bytes[j] == '"' || rnd.nextInt(Streams.BLOCK_SIZE / 4) == 0) {
+                bytes[j] = '"';
+                if (pos > 0) {
+                    expected.add(Arrays.copyOfRange(bytes, pos, j));
+                    pos = 0;
+                } else {
+                    pos = j + 1;
+                }
+            }
+        }
+        if (pos > 0) {
+            expected.add(Arrays.copyOfRange(bytes, pos, bytes.length));
+        }
+
+        Iterator<ByteBuffer> spans = Streams.quotedSpans(new ByteArrayInputStream(bytes));
+        for (byte[] span : expected) {
+            assertTrue(spans.hasNext());
+            assertEquals(ByteBuffer.wrap(span), spans.next());
+        }
+        assertFalse(spans.hasNext());
+        assertFalse(Streams.quotedSpans(new ByteArrayInputStream(new byte[10])).hasNext());
+    }
+
+    static int indexOfQuote(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; ++i) {
+            if (bytes[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static List<Byte> toList(byte[] bytes) {
+        List<Byte> list = new ArrayList<>(bytes.length);
+        for (byte b : bytes) {
+            list.add(b);
+        }
+        return list;
+    }
+
     @Test
     public void testReadUntil() throws IOException {
         StringReader in = new StringReader(
@@ -145,6 +258,54 @@ public class StreamsTest {
         }
     }
 
+    @Test
+    public void testReadUntilAny() throws IOException {
+        StringReader in = new StringReader("header: value\r\nnext line\nlast");
+        assertEquals("header: value", Streams.readUntilAny(in, "\n", "\r\n"));
+        assertEquals("next line", Streams.readUntilAny(in, "\n", "\r\n"));
+        assertEquals("last", Streams.readUntilAny(in, "\n", "\r\n"));
+        assertEquals("", Streams.readUntilAny(in, "\n", "\r\n"));
+        assertEquals(null, Streams.readUntilAny(in));
+        assertEquals(null, Streams.readUntilAny(in, "a", ""));
+    }
+
+    /**
+     * Split a long input, with marks straddling the blocks the reader is read in,
+     * from both a reader that supports mark() and one that doesn't, and check that
+     * nothing past each mark is consumed.
+     */
+    @Test
+    public void testReadUntilLarge() throws IOException {
+        StringBuilder text = new StringBuilder();
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            StringBuilder part = new StringBuilder();
+            int len = rnd.nextInt(3 * MarkMatcher.BUFFER_SIZE);
+            for (int j = 0; j < len; ++j) {
+                part.append((char) ('a' + rnd.nextInt(3))); // "ab" and "ba" appear all the time
+            }
+            parts.add(part.toString());
+            text.append(part).append("<aba|ab>");
+        }
+
+        for (boolean markable : new boolean[] {true, false}) {
+            byte[] bytes = text.toString().getBytes("UTF-8");
+            Reader in = markable ? new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), "UTF-8"))
+                    : new InputStreamReader(new ByteArrayInputStream(bytes), "UTF-8");
+            MarkMatcher matcher = new MarkMatcher("ab>", "<aba|");
+            StringBuilder out = new StringBuilder();
+            for (String part : parts) {
+                out.setLength(0);
+                assertEquals(1, matcher.readUntil(in, out));
+                assertEquals(part, out.toString());
+                out.setLength(0);
+                assertEquals(0, matcher.readUntil(in, out));
+                assertEquals("", out.toString());
+            }
+            assertEquals(-1, matcher.readUntil(in, out));
+        }
+    }
+
     @Test
     public void testFilterOut() throws IOException {
         byte[] bytes = "aabbccddeeaabbccddeeabcde".getBytes();
@@ -237,6 +398,38 @@ public class StreamsTest {
         }
     }
 
+    /**
+     * Filter a stream of several blocks, through both the stream and the channel
+     * versions, and check the result against a byte-at-a-time filter.
+     */
+    @Test
+    public void testFilterOutLarge() throws IOException {
+        byte badByte = (byte) 0xE5;
+        byte[] bytes = new byte[3 * Streams.BLOCK_SIZE + 101];
+        rnd.nextBytes(bytes);
+        for (int j = 0; j < bytes.length; ++j) {
+            if (rnd.nextInt(4) == 0) {
+                bytes[j] = badByte;
+            }
+        }
+        Arrays.fill(bytes, Streams.BLOCK_SIZE - 10, 2 * Streams.BLOCK_SIZE + 10, badByte); // A whole block of bad bytes
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (byte b : bytes) {
+            if (b != badByte) {
+                expected.write(b);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Streams.filterOut(new ByteArrayInputStream(bytes), out, badByte);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+
+        out.reset();
+        Streams.filterOut(Channels.newChannel(new ByteArrayInputStream(bytes)), Channels.newChannel(out), badByte);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
     @Test
     public void testReadNumber() throws IOException {
         byte[] bytes = {0x12, 0x34, 0x56, 0x78, 0x0a};
@@ -279,4 +472,82 @@ public class StreamsTest {
             assertEquals("Failed random test with length " + len, expected, num);
         }
     }
+
+    /**
+     * Write numbers in bulk, check the bytes against readNumber, and read them back
+     * in bulk from a stream with a partial number at its end.
+     */
+    @Test
+    public void testReadWriteNumbers() throws IOException {
+        long[] numbers = new long[3 * Streams.BLOCK_SIZE / 5 + 7];
+        for (int i = 0; i < numbers.length; ++i) {
+            numbers[i] = rnd.nextLong() >>> 24;
+        }
+        numbers[0] = 0xFFFFFFFFFFL;
+        numbers[1] = 0;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(42);
+        Streams.writeNumbers(out, numbers, 1, numbers.length - 1);
+        out.write(new byte[] {1, 2, 3}); // A partial number
+        byte[] bytes = out.toByteArray();
+        assertEquals(1 + 5 * (numbers.length - 1) + 3, bytes.length);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+        for (int i = 1; i < numbers.length; ++i) {
+            assertEquals(numbers[i], Streams.readNumber(in));
+        }
+
+        in = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+        long[] actual = new long[numbers.length + 10];
+        assertEquals(numbers.length - 1, Streams.readNumbers(in, actual, 1, actual.length - 1));
+        assertArrayEquals(Arrays.copyOfRange(numbers, 1, numbers.length), Arrays.copyOfRange(actual, 1, numbers.length));
+        assertEquals(0, actual[0]);
+
+        in = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+        assertEquals(2, Streams.readNumbers(in, actual, 0, 2));
+        assertEquals(numbers[3], Streams.readNumber(in)); // Nothing more was read
+
+        try {
+            Streams.writeNumbers(out, new long[] {1L << 40}, 0, 1);
+            fail("Wrote a number that doesn't fit in 40 bits");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testReadWriteNumbersByteBuffer() {
+        long[] numbers = new long[1000];
+        for (int i = 0; i < numbers.length; ++i) {
+            numbers[i] = rnd.nextLong() >>> 24;
+        }
+        byte[] expected = new byte[5 * numbers.length];
+        for (int i = 0; i < numbers.length; ++i) {
+            for (int j = 0; j < 5; ++j) {
+                expected[5 * i + j] = (byte) (numbers[i] >>> (8 * (4 - j)));
+            }
+        }
+
+        for (ByteBuffer buf : new ByteBuffer[] {ByteBuffer.allocate(expected.length + 7),
+                ByteBuffer.allocateDirect(expected.length + 7).order(ByteOrder.LITTLE_ENDIAN)}) {
+            for (int i = 0; i < buf.capacity(); ++i) {
+                buf.put(i, (byte) -1);
+            }
+            buf.position(3).limit(3 + expected.length + 2);
+            Streams.writeNumbers(buf, numbers, 0, numbers.length);
+            assertEquals(3 + expected.length, buf.position());
+            assertEquals(-1, buf.get(buf.position())); // Nothing written past the numbers
+
+            byte[] actualBytes = new byte[expected.length];
+            buf.get(3, actualBytes);
+            assertArrayEquals(expected, actualBytes);
+
+            buf.position(3);
+            long[] actual = new long[numbers.length + 1];
+            assertEquals(numbers.length, Streams.readNumbers(buf, actual, 0, actual.length));
+            assertArrayEquals(numbers, Arrays.copyOf(actual, numbers.length));
+            assertEquals(2, buf.remaining());
+        }
+    }
 }
@@ -144,4 +144,37 @@ public class TreasureHuntTest {
 
         assertEquals("Your solution didn't match mine", expected, actual);
     }
-}
\ No newline at end of file
+
+    /**
+     * Follow the extended test's clues through a cache of a few small pages, so
+     * that clues straddle pages and pages are evicted.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFindTreasurePaged() throws IOException {
+        int[] decoded = new int[1];
+        TreasureMapDecoder decoder = (clue, idx, size) -> {
+            calledDecoder = true;
+            ++decoded[0];
+            if (clue % 50 == 0) {
+                foundTreasure = true;
+                return -1;
+            }
+            return (clue * 47 + 1) % size;
+        };
+
+        PagedBitReader reader = new PagedBitReader(map, 16, 3);
+        long actual = TreasureHunt.findTreasure(reader, decoder, 10001);
+        checkTrivial();
+
+        assertEquals("Reading through pages gave a different result", 7609, actual);
+        assertEquals("Every clue but the first is read", decoded[0] - 1, reader.getReads());
+        assertTrue("Evicted pages weren't read again", reader.getMisses() > 3);
+        assertTrue("Words in cached pages weren't hits", reader.getHits() > 0);
+        assertTrue("Each clue reads one or two words",
+                reader.getHits() + reader.getMisses() >= reader.getReads()
+                        && reader.getHits() + reader.getMisses() <= 2 * reader.getReads());
+        assertEquals("Each miss reads a whole page", 16 * reader.getMisses(), reader.getBytesRead());
+    }
+}